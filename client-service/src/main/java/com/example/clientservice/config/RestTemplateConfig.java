@@ -1,9 +1,21 @@
 package com.example.clientservice.config;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.client.RestTemplate;
@@ -11,20 +23,66 @@ import org.springframework.web.client.RestTemplate;
 @Configuration
 public class RestTemplateConfig {
 
+    // Pooled Apache HttpClient 5 (keep-alive, bounded pool, connect/read timeouts), tuned via http.client.*
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpConnectionManager(
+            @Value("${http.client.max-total:50}") int maxTotal,
+            @Value("${http.client.max-per-route:10}") int maxPerRoute,
+            @Value("${http.client.connect-timeout-ms:2000}") long connectTimeoutMs,
+            @Value("${http.client.read-timeout-ms:5000}") long readTimeoutMs,
+            @Value("${http.client.time-to-live-ms:300000}") long timeToLiveMs
+    ) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setTimeToLive(TimeValue.ofMilliseconds(timeToLiveMs))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(
+            PoolingHttpClientConnectionManager httpConnectionManager,
+            @Value("${http.client.pool-wait-ms:1000}") long poolWaitMs,
+            @Value("${http.client.read-timeout-ms:5000}") long readTimeoutMs,
+            @Value("${http.client.keep-alive-ms:30000}") long keepAliveMs,
+            @Value("${http.client.idle-evict-ms:60000}") long idleEvictMs
+    ) {
+        return HttpClients.custom()
+                .setConnectionManager(httpConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolWaitMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(keepAliveMs))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleEvictMs))
+                .build();
+    }
+
+    // pool utilization (leased/available/pending/max) under httpcomponents.httpclient.pool.*
+    @Bean
+    public MeterBinder httpPoolMetrics(PoolingHttpClientConnectionManager httpConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(httpConnectionManager, "client-service");
+    }
+
     @Bean
     @LoadBalanced
-    public RestTemplate restTemplate() {
-        RestTemplate rt = new RestTemplate();
-        rt.getInterceptors().add((request, body, execution) -> {
+    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+        RestTemplate rt = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
 
+        rt.getInterceptors().add((request, body, execution) -> {
             var auth = SecurityContextHolder.getContext().getAuthentication();
             if (auth instanceof JwtAuthenticationToken jwtAuth) {
                 String token = jwtAuth.getToken().getTokenValue();
                 request.getHeaders().set(HttpHeaders.AUTHORIZATION, "Bearer " + token);
             }
-
             return execution.execute(request, body);
         });
+
         return rt;
     }
 }
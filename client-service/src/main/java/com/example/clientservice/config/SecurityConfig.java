@@ -29,6 +29,9 @@ public class SecurityConfig {
                         .requestMatchers("/actuator/**").permitAll()
                         .requestMatchers("/public/**").permitAll()
 
+                        // servicio a servicio sin JWT (valida X-Internal-Key en el controller)
+                        .requestMatchers(HttpMethod.POST, "/users/deactivate").permitAll()
+
                         // el resto protegido
                         .anyRequest().authenticated()
                 )
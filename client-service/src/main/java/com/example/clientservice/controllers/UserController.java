@@ -4,6 +4,7 @@ package com.example.clientservice.controllers;
 import com.example.clientservice.entities.UserEntity;
 import com.example.clientservice.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -12,6 +13,7 @@ import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/users")
@@ -20,6 +22,10 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    // shared key for service-to-service calls without a user JWT
+    @Value("${internal.api-key}")
+    private String internalApiKey;
+
     @PreAuthorize("hasAnyRole('USER','ADMIN')")
     @PostMapping
     public ResponseEntity<?> createUser(@RequestBody UserEntity user) {
@@ -57,6 +63,12 @@ public class UserController {
         return ResponseEntity.ok(user);
     }
 
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @PostMapping("/by-ruts")
+    public ResponseEntity<Map<String, UserEntity>> getUsersByRuts(@RequestBody List<String> ruts) {
+        return ResponseEntity.ok(userService.getUsersByRuts(ruts));
+    }
+
     @PreAuthorize("hasAnyRole('ADMIN')")
     @PatchMapping("/{id}/active")
     public ResponseEntity<?> updateUserActiveStatus(@PathVariable Long id, @RequestParam boolean active) {
@@ -72,6 +84,18 @@ public class UserController {
         }
     }
 
+    // bulk deactivation pushed by loan-service's overdue sweeper
+    @PostMapping("/deactivate")
+    public ResponseEntity<?> deactivateByRuts(
+            @RequestHeader(value = "X-Internal-Key", required = false) String key,
+            @RequestBody List<String> ruts
+    ) {
+        if (internalApiKey.isBlank() || !internalApiKey.equals(key)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(Map.of("deactivated", userService.deactivateByRuts(ruts)));
+    }
+
     @GetMapping("/me")
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<UserEntity> me(@AuthenticationPrincipal Jwt jwt) {
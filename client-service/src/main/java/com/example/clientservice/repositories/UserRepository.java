@@ -2,12 +2,22 @@ package com.example.clientservice.repositories;
 
 import com.example.clientservice.entities.UserEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<UserEntity, Long> {
     UserEntity findByRut(String rut);
+    List<UserEntity> findByRutIn(Collection<String> ruts);
     UserEntity findByEmail(String email);
     Optional<UserEntity> findByKeycloakId(String keycloakId);
 
+    @Modifying
+    @Query("update UserEntity u set u.active = false where u.rut in :ruts and u.active = true")
+    int deactivateByRutIn(@Param("ruts") Collection<String> ruts);
+
 }
@@ -6,12 +6,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class UserService {
@@ -154,35 +159,74 @@ public class UserService {
     public UserEntity getUserById(Long id) { return userRepository.findById(id).orElse(null); }
     public UserEntity getUserByRut(String rut) { return userRepository.findByRut(rut == null ? null : normalizeRut(rut)); }
 
+    // Bulk lookup (one IN query); keyed by the RUT as the caller sent it, unknown RUTs are omitted
+    public Map<String, UserEntity> getUsersByRuts(List<String> ruts) {
+        Map<String, UserEntity> out = new LinkedHashMap<>();
+        if (ruts == null || ruts.isEmpty()) return out;
+
+        Map<String, String> normalizedByInput = new LinkedHashMap<>();
+        for (String r : ruts) {
+            if (r != null && !r.isBlank()) normalizedByInput.put(r, normalizeRut(r));
+        }
+        if (normalizedByInput.isEmpty()) return out;
+
+        Map<String, UserEntity> byRut = new HashMap<>();
+        for (UserEntity u : userRepository.findByRutIn(new LinkedHashSet<>(normalizedByInput.values()))) {
+            byRut.put(u.getRut(), u);
+        }
+        for (Map.Entry<String, String> e : normalizedByInput.entrySet()) {
+            UserEntity u = byRut.get(e.getValue());
+            if (u != null) out.put(e.getKey(), u);
+        }
+        return out;
+    }
+
+    // ========= DESACTIVACIÓN MASIVA (sweeper de atrasos en loan-service) =========
+    @Transactional
+    public int deactivateByRuts(List<String> ruts) {
+        if (ruts == null || ruts.isEmpty()) return 0;
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String r : ruts) {
+            if (r != null && !r.isBlank()) normalized.add(normalizeRut(r));
+        }
+        return normalized.isEmpty() ? 0 : userRepository.deactivateByRutIn(normalized);
+    }
+
     // ========= RECOMPUTE ACTIVE (ahora via loan-service) =========
     public UserEntity recomputeActiveStatus(String rutUser) {
         String normalizedRut = rutUser == null ? null : normalizeRut(rutUser);
         UserEntity u = userRepository.findByRut(normalizedRut);
         if (u == null) return null;
 
-        boolean hasOverdue = callLoanBoolean("/loan/exists/overdue?rut=" + normalizedRut);
-        boolean hasUnpaidLateFine = callLoanBoolean("/loan/exists/unpaid-latefine?rut=" + normalizedRut);
-        boolean hasUnpaidDamage = callLoanBoolean("/loan/exists/unpaid-damage?rut=" + normalizedRut);
+        // una sola lectura por PK en loan-service (loan_user_summary)
+        Map<String, Object> summary = fetchLoanSummary(normalizedRut);
+        // loan-service abajo: se mantiene el estado guardado (no se reactiva a nadie a ciegas)
+        if (summary == null) return u;
+
+        boolean hasOverdue = Boolean.TRUE.equals(summary.get("overdue"));
+        boolean hasUnpaidLateFine = asInt(summary.get("unpaidLateFines")) > 0;
+        boolean hasUnpaidDamage = asInt(summary.get("unpaidDamagePenalties")) > 0;
 
         boolean shouldBeActive = !(hasOverdue || hasUnpaidLateFine || hasUnpaidDamage);
         u.setActive(shouldBeActive);
         return userRepository.save(u);
     }
 
-    private boolean callLoanBoolean(String pathAndQuery) {
+    // null = no answer from loan-service (fail closed: the caller keeps the stored status)
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> fetchLoanSummary(String rut) {
         try {
-            String url = loanBaseUrl + pathAndQuery;
-            Boolean resp = restTemplate.getForObject(url, Boolean.class);
-            return resp != null && resp;
+            String url = loanBaseUrl + "/loan/summary/" + rut;
+            return restTemplate.getForObject(url, Map.class);
         } catch (RestClientException ex) {
-            // si loan-service está abajo, por seguridad puedes decidir:
-            // return true;  (bloquear)
-            // o return false; (no bloquear)
-            // yo recomiendo NO bloquear por fallo de red:
-            return false;
+            return null;
         }
     }
 
+    private int asInt(Object v) {
+        return (v instanceof Number n) ? n.intValue() : 0;
+    }
+
     // ========= HELPERS =========
     private String normalizeRut(String rut) {
         if (rut == null) return null;
@@ -30,6 +30,11 @@ public class SecurityConfig {
                         .requestMatchers("/public/**").permitAll()
 
                         .requestMatchers(HttpMethod.PUT, "/tool/**").authenticated()
+                        // X-Internal-Key o JWT de ADMIN (se valida en el controller)
+                        .requestMatchers(HttpMethod.POST, "/tool/transitions/*/revert").permitAll()
+                        // holds: X-Internal-Key o JWT; dueño / ADMIN se valida en el controller y ToolService
+                        .requestMatchers("/tool/holds", "/tool/holds/**").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/tool/batch", "/tool/transitions").authenticated()
                         .requestMatchers(HttpMethod.POST, "/tool/**").hasRole("ADMIN")
 
                         // el resto protegido
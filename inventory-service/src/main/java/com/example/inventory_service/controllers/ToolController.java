@@ -1,10 +1,16 @@
 package com.example.inventory_service.controllers;
 
 import com.example.inventory_service.entities.ToolEntity;
+import com.example.inventory_service.entities.ToolHoldEntity;
 import com.example.inventory_service.services.ToolService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -17,6 +23,9 @@ public class ToolController {
 
     private final ToolService toolService;
 
+    @Value("${internal.api-key}")
+    private String internalApiKey;
+
     // body = ToolEntity, rutUser via query param
     @PreAuthorize("hasAnyRole('USER','ADMIN')")
     @PostMapping
@@ -46,6 +55,106 @@ public class ToolController {
         }
     }
 
+    // bulk move: [{toolId, toState, qty}] applied atomically, returns the resulting buckets
+    // opKey (optional): applied at most once, and revertible through /transitions/{opKey}/revert
+    @PreAuthorize("hasAnyRole('USER','ADMIN')")
+    @PostMapping("/transitions")
+    public ResponseEntity<?> applyTransitions(@RequestBody List<ToolService.StateTransition> moves,
+                                              @RequestParam String rutUser,
+                                              @RequestParam(required = false) String opKey) {
+        try {
+            return ResponseEntity.ok(toolService.applyTransitions(moves, rutUser, opKey));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (DataIntegrityViolationException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Operation in progress: " + opKey);
+        }
+    }
+
+    // saga compensation (X-Internal-Key or ADMIN JWT, loan-service recovers without a user token)
+    @PostMapping("/transitions/{opKey}/revert")
+    public ResponseEntity<?> revertTransitions(@PathVariable String opKey,
+                                               @RequestParam String rutUser,
+                                               @RequestHeader(value = "X-Internal-Key", required = false) String key,
+                                               Authentication auth) {
+        if (!callerAllowed(auth, key)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        try {
+            return ResponseEntity.ok(toolService.revertTransitions(opKey, rutUser));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (DataIntegrityViolationException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Operation in progress: " + opKey);
+        }
+    }
+
+    // ==========================
+    // HOLDS (checkout)
+    // ==========================
+    // Owner = the rut of the caller's token; an ADMIN token or the internal key may act on any hold
+    // (rutUser then says for whom). Checked in ToolService (AccessDeniedException -> 403).
+
+    // body = [{toolId, qty}], units leave "Disponible" until commit/release/expiry (ttlSeconds)
+    @PostMapping("/holds")
+    public ResponseEntity<?> createHold(@RequestBody List<ToolHoldEntity.HoldLine> lines,
+                                        @RequestParam(required = false) String rutUser,
+                                        @RequestParam(required = false) Integer ttlSeconds,
+                                        @RequestHeader(value = "X-Internal-Key", required = false) String key,
+                                        Authentication auth) {
+        ToolService.Caller caller = caller(auth, key);
+        if (caller == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        try {
+            return ResponseEntity.ok(toolService.createHold(lines, rutUser, ttlSeconds, caller));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/holds/{holdId}")
+    public ResponseEntity<?> getHold(@PathVariable String holdId,
+                                     @RequestHeader(value = "X-Internal-Key", required = false) String key,
+                                     Authentication auth) {
+        ToolService.Caller caller = caller(auth, key);
+        if (caller == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        try {
+            return ResponseEntity.ok(toolService.getHold(holdId, caller));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    // body (optional) = toolIds the caller expects the hold to cover
+    @PostMapping("/holds/{holdId}/commit")
+    public ResponseEntity<?> commitHold(@PathVariable String holdId,
+                                        @RequestParam(required = false) String rutUser,
+                                        @RequestParam(defaultValue = "Prestada") String toState,
+                                        @RequestParam(required = false) String opKey,
+                                        @RequestBody(required = false) List<Long> toolIds,
+                                        @RequestHeader(value = "X-Internal-Key", required = false) String key,
+                                        Authentication auth) {
+        ToolService.Caller caller = caller(auth, key);
+        if (caller == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        try {
+            return ResponseEntity.ok(toolService.commitHold(holdId, toState, toolIds, rutUser, opKey, caller));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (DataIntegrityViolationException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Operation in progress: " + opKey);
+        }
+    }
+
+    @PostMapping("/holds/{holdId}/release")
+    public ResponseEntity<?> releaseHold(@PathVariable String holdId,
+                                         @RequestHeader(value = "X-Internal-Key", required = false) String key,
+                                         Authentication auth) {
+        ToolService.Caller caller = caller(auth, key);
+        if (caller == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        try {
+            return ResponseEntity.ok(toolService.releaseHold(holdId, caller));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     // Si implementas getAllNamesWithCategory() en ToolService
     @PreAuthorize("hasAnyRole('USER','ADMIN')")
     @GetMapping("/names-categories")
@@ -75,6 +184,18 @@ public class ToolController {
         }
     }
 
+    // ids in body -> tool rows + same name/category bucket ids in `state` (default "Prestada")
+    @PreAuthorize("hasAnyRole('USER','ADMIN')")
+    @PostMapping("/batch")
+    public ResponseEntity<?> getToolBatch(@RequestBody List<Long> ids,
+                                          @RequestParam(defaultValue = "Prestada") String state) {
+        try {
+            return ResponseEntity.ok(toolService.getBatch(ids, state));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @GetMapping("/ids")
     public ResponseEntity<?> getToolIds(
             @RequestParam String name,
@@ -88,5 +209,23 @@ public class ToolController {
         }
     }
 
+    // internal key (loan-service) or an ADMIN token; a USER token is not enough
+    private boolean callerAllowed(Authentication auth, String key) {
+        if (!internalApiKey.isBlank() && internalApiKey.equals(key)) return true;
+        return auth instanceof JwtAuthenticationToken && hasRole(auth, "ROLE_ADMIN");
+    }
+
+    // internal key / ADMIN -> privileged; USER -> its own rut (token claim "rut"); otherwise null (401)
+    private ToolService.Caller caller(Authentication auth, String key) {
+        if (!internalApiKey.isBlank() && internalApiKey.equals(key)) return new ToolService.Caller(null, true);
+        if (!(auth instanceof JwtAuthenticationToken jwtAuth)) return null;
+        if (hasRole(auth, "ROLE_ADMIN")) return new ToolService.Caller(jwtAuth.getToken().getClaimAsString("rut"), true);
+        if (!hasRole(auth, "ROLE_USER")) return null;
+        String rut = jwtAuth.getToken().getClaimAsString("rut");
+        return (rut == null || rut.isBlank()) ? null : new ToolService.Caller(rut, false);
+    }
 
+    private boolean hasRole(Authentication auth, String role) {
+        return auth.getAuthorities().stream().anyMatch(a -> role.equals(a.getAuthority()));
+    }
 }
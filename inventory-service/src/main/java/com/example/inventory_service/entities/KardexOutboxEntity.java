@@ -0,0 +1,39 @@
+package com.example.inventory_service.entities;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Pending kardex movements, written in the same transaction as the stock change.
+// A row kardex-service keeps rejecting (4xx) is dead-lettered: failedAt set, no longer dispatched.
+@Entity
+@Table(name = "kardex_outbox")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KardexOutboxEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long toolId;
+    private String toolNameSnapshot;
+    private String toolCategorySnapshot;
+    private String rutUser;
+    private String type;
+    private LocalDate movementDate;
+    private int stock;
+
+    // rejections so far, and the last one
+    private Integer attempts;
+
+    @Column(length = 500)
+    private String lastError;
+
+    private LocalDateTime failedAt;
+}
@@ -5,8 +5,11 @@ import lombok.NoArgsConstructor;
 
 import jakarta.persistence.*;
 
+// One row per bucket (name + category + state); amount = units in that state.
+// uk_tool_bucket is ensured on startup by ToolBucketConstraint (merges existing duplicates first).
 @Entity
-@Table(name = "tool")
+@Table(name = "tool", uniqueConstraints = @UniqueConstraint(
+        name = "uk_tool_bucket", columnNames = {"name", "category", "initial_state"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -23,6 +26,11 @@ public class ToolEntity {
     private int repositionValue;
     private boolean available;
     private int amount; //Stock
+
+    // optimistic lock for attribute edits; atomic stock updates bump it too
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    private long version;
 }
 
 
@@ -0,0 +1,46 @@
+package com.example.inventory_service.entities;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Short-lived stock hold (checkout). The held units are already taken out of their
+// "Disponible" bucket; commit moves them to the target state, release/expiry puts them back.
+// HELD -> COMMITTED | RELEASED | EXPIRED
+@Entity
+@Table(name = "tool_hold", indexes = @Index(name = "ix_tool_hold_status_expires", columnList = "status, expiresAt"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolHoldEntity {
+
+    @Id
+    @Column(length = 36)
+    private String holdId;
+
+    private String rutUser;
+    private String status;
+    private LocalDateTime expiresAt;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "tool_hold_line", joinColumns = @JoinColumn(name = "hold_id"))
+    private List<HoldLine> lines = new ArrayList<>();
+
+    @Embeddable
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HoldLine {
+        private Long toolId;
+
+        @Column(nullable = false)
+        private Integer qty;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.inventory_service.entities;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+// One keyed /tool/transitions call (e.g. a loan saga step).
+// APPLIED: moves done, reverseMoves undoes them. REVERTED: undone, or a tombstone when the
+// revert arrived before (or instead of) the apply, so a late apply is rejected.
+@Entity
+@Table(name = "tool_transition_op")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolTransitionOpEntity {
+
+    @Id
+    @Column(length = 100)
+    private String opKey;
+
+    private String status;
+    private String rutUser;
+
+    // "toolId:state:qty|..." (target bucket -> origin state)
+    @Column(columnDefinition = "text")
+    private String reverseMoves;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
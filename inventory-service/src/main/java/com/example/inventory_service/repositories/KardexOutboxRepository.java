@@ -0,0 +1,24 @@
+package com.example.inventory_service.repositories;
+
+import com.example.inventory_service.entities.KardexOutboxEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface KardexOutboxRepository extends JpaRepository<KardexOutboxEntity, Long> {
+
+    // oldest first, dead-lettered rows excluded; SKIP LOCKED lets several inventory instances drain in parallel
+    @Query(value = """
+      select *
+      from kardex_outbox
+      where failed_at is null
+      order by id
+      limit :limit
+      for update skip locked
+    """, nativeQuery = true)
+    List<KardexOutboxEntity> lockNextBatch(@Param("limit") int limit);
+}
@@ -0,0 +1,34 @@
+package com.example.inventory_service.repositories;
+
+import com.example.inventory_service.entities.ToolHoldEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ToolHoldRepository extends JpaRepository<ToolHoldEntity, String> {
+
+    // serializes commit / release / expiry of the same hold
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select h from ToolHoldEntity h where h.holdId = :holdId")
+    Optional<ToolHoldEntity> findForUpdate(@Param("holdId") String holdId);
+
+    @Query("""
+      select h.holdId
+      from ToolHoldEntity h
+      where h.status = 'HELD' and h.expiresAt <= :now
+      order by h.expiresAt
+    """)
+    List<String> findExpiredIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+    @Query("select h from ToolHoldEntity h where h.status = 'HELD'")
+    List<ToolHoldEntity> findAllHeld();
+}
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,6 +16,7 @@ import java.util.Optional;
 public interface ToolRepository extends JpaRepository<ToolEntity, Long> {
     List<ToolEntity> findByNameAndCategory(String name, String category);
     List<ToolEntity> findByName(String name);
+    List<ToolEntity> findByNameIn(Collection<String> names);
     List<ToolEntity> findAllByInitialStateIgnoreCaseAndAmountGreaterThan(String initialState, int amount);
 
 
@@ -35,5 +37,75 @@ public interface ToolRepository extends JpaRepository<ToolEntity, Long> {
     Optional<ToolEntity> findFirstByNameAndCategoryAndInitialState(String name, String category, String initialState);
     List<ToolEntity> findByNameAndCategoryAndInitialState(String name, String category, String initialState);
 
+    // Buckets of one state for several names at once (batch lookups, filtered by category afterwards)
+    @Query("""
+      select t
+      from ToolEntity t
+      where lower(t.initialState) = lower(:state)
+        and lower(t.name) in :names
+    """)
+    List<ToolEntity> findAllByStateAndLowerNameIn(
+            @Param("state") String state,
+            @Param("names") Collection<String> names
+    );
+
+    // =========================
+    // Atomic stock changes (no read-modify-write, no lost updates)
+    // =========================
+    // 0 rows = not enough stock (or unknown id)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+      update ToolEntity t
+      set t.amount = t.amount - :qty, t.version = t.version + 1
+      where t.id = :id and t.amount >= :qty
+    """)
+    int decrementIfAvailable(@Param("id") Long id, @Param("qty") int qty);
+
+    // gives units back to a known bucket (hold release / expiry); cleared so the kardex balance
+    // row reads the new amount
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+      update ToolEntity t
+      set t.amount = t.amount + :qty, t.version = t.version + 1
+      where t.id = :id
+    """)
+    int incrementStock(@Param("id") Long id, @Param("qty") int qty);
+
+    // adds stock to the name/category/state bucket, creating it if missing (unique bucket key)
+    @Query(value = """
+      insert into tool (name, category, initial_state, reposition_value, available, amount, version)
+      values (:name, :category, :state, :repositionValue, :available, :qty, 0)
+      on conflict (name, category, initial_state)
+      do update set amount = tool.amount + excluded.amount, version = tool.version + 1
+      returning id
+    """, nativeQuery = true)
+    Long addToBucket(
+            @Param("name") String name,
+            @Param("category") String category,
+            @Param("state") String state,
+            @Param("repositionValue") int repositionValue,
+            @Param("available") boolean available,
+            @Param("qty") int qty
+    );
+
+    // same, for a stock intake: the intake also sets the bucket's reposition value
+    @Query(value = """
+      insert into tool (name, category, initial_state, reposition_value, available, amount, version)
+      values (:name, :category, :state, :repositionValue, :available, :qty, 0)
+      on conflict (name, category, initial_state)
+      do update set amount = tool.amount + excluded.amount,
+                    reposition_value = excluded.reposition_value,
+                    version = tool.version + 1
+      returning id
+    """, nativeQuery = true)
+    Long intakeIntoBucket(
+            @Param("name") String name,
+            @Param("category") String category,
+            @Param("state") String state,
+            @Param("repositionValue") int repositionValue,
+            @Param("available") boolean available,
+            @Param("qty") int qty
+    );
+
 
 }
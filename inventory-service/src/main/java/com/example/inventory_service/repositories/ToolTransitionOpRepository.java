@@ -0,0 +1,20 @@
+package com.example.inventory_service.repositories;
+
+import com.example.inventory_service.entities.ToolTransitionOpEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ToolTransitionOpRepository extends JpaRepository<ToolTransitionOpEntity, String> {
+
+    // serializes apply/revert of the same key
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select o from ToolTransitionOpEntity o where o.opKey = :opKey")
+    Optional<ToolTransitionOpEntity> findForUpdate(@Param("opKey") String opKey);
+}
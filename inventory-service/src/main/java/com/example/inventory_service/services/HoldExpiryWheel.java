@@ -0,0 +1,33 @@
+package com.example.inventory_service.services;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// In-memory expiry wheel for stock holds: one slot per second, holds are drained when their
+// slot is due. Only an index over tool_hold (the table is the source of truth): holds created
+// by other instances, before a restart or racing a drain are picked up by the DB sweep in ToolService.
+@Component
+public class HoldExpiryWheel {
+
+    private final ConcurrentSkipListMap<Long, Set<String>> slots = new ConcurrentSkipListMap<>();
+
+    public void schedule(String holdId, long expiresAtMillis) {
+        long slot = Math.floorDiv(expiresAtMillis, 1000L) + 1;  // never early
+        slots.computeIfAbsent(slot, k -> ConcurrentHashMap.newKeySet()).add(holdId);
+    }
+
+    // removes and returns every hold whose slot is due
+    public List<String> drainDue(long nowMillis) {
+        long nowSlot = Math.floorDiv(nowMillis, 1000L);
+        List<String> due = new ArrayList<>();
+        Map.Entry<Long, Set<String>> e;
+        while ((e = slots.firstEntry()) != null && e.getKey() <= nowSlot) {
+            Set<String> ids = slots.remove(e.getKey());
+            if (ids != null) due.addAll(ids);
+        }
+        return due;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.inventory_service.services;
+
+import com.example.inventory_service.entities.KardexOutboxEntity;
+import com.example.inventory_service.repositories.KardexOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Drains kardex_outbox to kardex-service in batches (off the stock-change hot path).
+// Rows are deleted after the POST, so a batch can be delivered again (e.g. the delete fails to
+// commit); each movement carries its outbox id and kardex-service ignores ids already stored.
+// A rejected batch (4xx) is resent row by row, so one bad row does not hold back the others; a row
+// rejected kardex.outbox.max-attempts times is dead-lettered (failed_at) and logged.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class KardexOutboxDispatcher {
+
+    private final KardexOutboxRepository outboxRepository;
+    private final RestTemplate restTemplate;
+
+    @Value("${services.kardex.base-url:http://kardex-service}")
+    private String kardexBaseUrl;
+
+    @Value("${kardex.outbox.batch-size:200}")
+    private int batchSize;
+
+    @Value("${internal.api-key}")
+    private String internalApiKey;
+
+    @Value("${kardex.outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    @Scheduled(fixedDelayString = "${kardex.outbox.delay-ms:2000}")
+    @Transactional
+    public void dispatch() {
+        List<KardexOutboxEntity> rows = outboxRepository.lockNextBatch(batchSize);
+        if (rows.isEmpty()) return;
+
+        try {
+            post(rows);
+        } catch (HttpClientErrorException ex) {
+            if (isAuthError(ex)) {
+                log.error("Kardex outbox: kardex-service refused the internal key ({}), {} rows kept",
+                        ex.getStatusCode(), rows.size());
+                return;
+            }
+            // the batch endpoint is all-or-nothing: find the rejected rows by sending one by one
+            log.warn("Kardex outbox: batch of {} rejected ({}), retrying row by row",
+                    rows.size(), ex.getStatusCode());
+            dispatchOneByOne(rows);
+            return;
+        } catch (RestClientException ex) {
+            // 5xx / I/O: rows stay in the outbox and are retried on the next tick
+            log.warn("Kardex outbox: batch of {} not delivered, retrying later: {}", rows.size(), ex.getMessage());
+            return;
+        }
+
+        outboxRepository.deleteAllInBatch(rows);
+    }
+
+    private void dispatchOneByOne(List<KardexOutboxEntity> rows) {
+        List<KardexOutboxEntity> delivered = new ArrayList<>();
+        for (KardexOutboxEntity r : rows) {
+            try {
+                post(List.of(r));
+                delivered.add(r);
+            } catch (HttpClientErrorException ex) {
+                if (isAuthError(ex)) break;
+                reject(r, ex.getStatusCode() + " " + ex.getResponseBodyAsString());
+            } catch (RestClientException ex) {
+                log.warn("Kardex outbox: row {} not delivered, retrying later: {}", r.getId(), ex.getMessage());
+                break;
+            }
+        }
+        if (!delivered.isEmpty()) outboxRepository.deleteAllInBatch(delivered);
+    }
+
+    // counts the rejection; after maxAttempts the row is dead-lettered (kept, no longer dispatched)
+    private void reject(KardexOutboxEntity r, String error) {
+        int attempts = ((r.getAttempts() == null) ? 0 : r.getAttempts()) + 1;
+        r.setAttempts(attempts);
+        r.setLastError((error.length() > 500) ? error.substring(0, 500) : error);
+        if (attempts >= maxAttempts) {
+            r.setFailedAt(LocalDateTime.now());
+            log.error("Kardex outbox: row {} (tool {}, {}) dead-lettered after {} attempts: {}",
+                    r.getId(), r.getToolId(), r.getType(), attempts, error);
+        } else {
+            log.warn("Kardex outbox: row {} rejected (attempt {}/{}): {}", r.getId(), attempts, maxAttempts, error);
+        }
+    }
+
+    private void post(List<KardexOutboxEntity> rows) {
+        List<Map<String, Object>> body = new ArrayList<>();
+        for (KardexOutboxEntity r : rows) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("sourceId", r.getId());  // kardex-service skips ids it already stored
+            m.put("toolId", r.getToolId());
+            m.put("toolNameSnapshot", r.getToolNameSnapshot());
+            m.put("toolCategorySnapshot", r.getToolCategorySnapshot());
+            m.put("rutUser", r.getRutUser());
+            m.put("type", r.getType());
+            m.put("movementDate", r.getMovementDate());
+            m.put("stock", r.getStock());
+            body.add(m);
+        }
+
+        // No user JWT here (scheduled thread): kardex-service checks the shared internal key
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Internal-Key", internalApiKey);
+
+        restTemplate.postForEntity(
+                kardexBaseUrl + "/kardex/movements/batch",
+                new HttpEntity<>(body, headers),
+                Void.class
+        );
+    }
+
+    // wrong/missing key: a configuration problem, not the rows' fault
+    private boolean isAuthError(HttpClientErrorException ex) {
+        return ex.getStatusCode().value() == 401 || ex.getStatusCode().value() == 403;
+    }
+}
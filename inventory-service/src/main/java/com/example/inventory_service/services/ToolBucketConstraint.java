@@ -0,0 +1,118 @@
+package com.example.inventory_service.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+// uk_tool_bucket (one row per name/category/state) is what the ON CONFLICT upserts of ToolRepository
+// rely on. ddl-auto only adds it when the table has no duplicate buckets (and just logs the failed
+// ALTER otherwise), so on startup:
+// - duplicate buckets are merged into the lowest id: amounts added up, hold lines, pending outbox
+//   rows and the reverse moves of transition ops repointed, the other rows deleted
+// - the constraint is created
+// Not best-effort: without the constraint every stock move would fail, so startup fails instead.
+// Other services keep the ids they stored for a merged-away bucket (kardex history); loan-service
+// resolves buckets by name/category (/tool/batch).
+@Service
+@RequiredArgsConstructor
+public class ToolBucketConstraint {
+
+    private static final String CONSTRAINT = "uk_tool_bucket";
+
+    // serializes the check/merge between instances starting at the same time
+    private static final long SCHEMA_LOCK = 0x746f6f6c424b54L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(0)
+    public void onStartup() {
+        transactionTemplate.executeWithoutResult(s -> {
+            jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?)", Object.class, SCHEMA_LOCK);
+            if (exists()) return;
+
+            // no stock moves while buckets are merged
+            jdbcTemplate.execute("lock table tool in exclusive mode");
+            mergeDuplicates();
+            jdbcTemplate.execute("alter table tool add constraint " + CONSTRAINT
+                    + " unique (name, category, initial_state)");
+        });
+
+        if (!exists())
+            throw new IllegalStateException("Constraint " + CONSTRAINT + " is missing on table tool");
+    }
+
+    private boolean exists() {
+        Boolean found = jdbcTemplate.queryForObject(
+                "select exists (select 1 from pg_constraint where conname = ? and conrelid = 'tool'::regclass)",
+                Boolean.class, CONSTRAINT);
+        return Boolean.TRUE.equals(found);
+    }
+
+    // Must run inside the startup transaction (table locked)
+    private void mergeDuplicates() {
+        // merged-away id -> kept id (null name/category/state never conflict, as in the constraint)
+        Map<Long, Long> keepById = new HashMap<>();
+        jdbcTemplate.query("""
+                select id, keep_id
+                from (select id, min(id) over (partition by name, category, initial_state) as keep_id
+                      from tool
+                      where name is not null and category is not null and initial_state is not null) b
+                where id <> keep_id
+                """, rs -> {
+            keepById.put(rs.getLong(1), rs.getLong(2));
+        });
+        if (keepById.isEmpty()) return;
+
+        List<Object[]> pairs = new ArrayList<>(keepById.size());
+        keepById.forEach((id, keep) -> pairs.add(new Object[]{id, keep}));
+
+        jdbcTemplate.execute("create temp table tool_bucket_merge (id bigint primary key, keep_id bigint not null) on commit drop");
+        jdbcTemplate.batchUpdate("insert into tool_bucket_merge (id, keep_id) values (?, ?)", pairs);
+
+        jdbcTemplate.update("""
+                update tool k
+                set amount = k.amount + s.extra, version = k.version + 1
+                from (select m.keep_id, sum(t.amount) as extra
+                      from tool_bucket_merge m join tool t on t.id = m.id
+                      group by m.keep_id) s
+                where k.id = s.keep_id
+                """);
+        jdbcTemplate.update("update tool_hold_line l set tool_id = m.keep_id from tool_bucket_merge m where l.tool_id = m.id");
+        jdbcTemplate.update("update kardex_outbox o set tool_id = m.keep_id from tool_bucket_merge m where o.tool_id = m.id");
+        repointTransitionOps(keepById);
+        jdbcTemplate.update("delete from tool t using tool_bucket_merge m where t.id = m.id");
+    }
+
+    // reverse_moves = "toolId:state:qty|..." (see ToolService.formatMoves)
+    private void repointTransitionOps(Map<Long, Long> keepById) {
+        List<Object[]> updates = new ArrayList<>();
+        jdbcTemplate.query("select op_key, reverse_moves from tool_transition_op where reverse_moves <> ''", rs -> {
+            String raw = rs.getString(2);
+            StringBuilder sb = new StringBuilder();
+            boolean changed = false;
+            for (String part : raw.split("\\|")) {
+                int colon = part.indexOf(':');
+                Long id = Long.valueOf(part.substring(0, colon));
+                Long keep = keepById.get(id);
+                if (sb.length() > 0) sb.append('|');
+                if (keep != null) {
+                    sb.append(keep).append(part, colon, part.length());
+                    changed = true;
+                } else {
+                    sb.append(part);
+                }
+            }
+            if (changed) updates.add(new Object[]{sb.toString(), rs.getString(1)});
+        });
+        if (!updates.isEmpty())
+            jdbcTemplate.batchUpdate("update tool_transition_op set reverse_moves = ? where op_key = ?", updates);
+    }
+}
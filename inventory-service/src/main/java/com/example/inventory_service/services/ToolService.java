@@ -1,15 +1,35 @@
 package com.example.inventory_service.services;
 
+import com.example.inventory_service.entities.KardexOutboxEntity;
 import com.example.inventory_service.entities.ToolEntity;
+import com.example.inventory_service.entities.ToolHoldEntity;
+import com.example.inventory_service.entities.ToolTransitionOpEntity;
+import com.example.inventory_service.repositories.KardexOutboxRepository;
+import com.example.inventory_service.repositories.ToolHoldRepository;
 import com.example.inventory_service.repositories.ToolRepository;
+import com.example.inventory_service.repositories.ToolTransitionOpRepository;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 @Service
 public class ToolService {
@@ -18,15 +38,41 @@ public class ToolService {
     private ToolRepository toolRepository;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private KardexOutboxRepository kardexOutboxRepository;
 
-    // Service name registered in Eureka
-    private static final String KARDEX_SERVICE_URL = "http://kardex-service/kardex/movements";
+    @Autowired
+    private ToolTransitionOpRepository transitionOpRepository;
+
+    @Autowired
+    private ToolHoldRepository holdRepository;
+
+    @Autowired
+    private HoldExpiryWheel expiryWheel;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${inventory.concurrency.max-attempts:3}")
+    private int maxConcurrencyAttempts;
+
+    @Value("${holds.ttl-seconds:120}")
+    private int holdTtlSeconds;
+
+    @Value("${holds.max-ttl-seconds:900}")
+    private int holdMaxTtlSeconds;
+
+    private static final String OP_APPLIED = "APPLIED";
+    private static final String OP_REVERTED = "REVERTED";
+
+    private static final String HOLD_HELD = "HELD";
+    private static final String HOLD_COMMITTED = "COMMITTED";
+    private static final String HOLD_RELEASED = "RELEASED";
+    private static final String HOLD_EXPIRED = "EXPIRED";
 
     private static final List<String> validState =
             Arrays.asList("Disponible", "Prestada", "En reparación", "Dada de baja");
 
-    // Create Tool
+    // Create Tool (stock intake: upsert into the name/category/state bucket, no duplicate buckets)
     public ToolEntity saveTool(ToolEntity tool, String rutUser) {
 
         if (tool.getName() == null || tool.getName().isBlank())
@@ -44,22 +90,8 @@ public class ToolService {
         if (!validState.contains(tool.getInitialState()))
             throw new IllegalArgumentException("Invalid initial state");
 
-        List<ToolEntity> existing = toolRepository
-                .findByNameAndCategoryAndInitialState(
-                        tool.getName(), tool.getCategory(), tool.getInitialState()
-                );
-
-        ToolEntity savedTool;
-
-        if (!existing.isEmpty()) {
-            ToolEntity bucket = existing.get(0);
-            bucket.setAmount(bucket.getAmount() + tool.getAmount());
-            bucket.setRepositionValue(tool.getRepositionValue());
-            bucket.setAvailable("Disponible".equalsIgnoreCase(bucket.getInitialState()));
-            savedTool = toolRepository.save(bucket);
-        } else {
-            ToolEntity newTool = new ToolEntity(
-                    null,
+        return inTransactionWithRetry(() -> {
+            Long bucketId = toolRepository.intakeIntoBucket(
                     tool.getName(),
                     tool.getCategory(),
                     tool.getInitialState(),
@@ -67,111 +99,521 @@ public class ToolService {
                     "Disponible".equalsIgnoreCase(tool.getInitialState()),
                     tool.getAmount()
             );
-            savedTool = toolRepository.save(newTool);
-        }
+            ToolEntity savedTool = getById(bucketId);
 
-        // Register kardex via HTTP (snapshot)
-        registerKardexMovement(
-                savedTool.getId(),
-                savedTool.getName(),
-                savedTool.getCategory(),
-                rutUser,
-                "Ingreso",
-                tool.getAmount()
-        );
+            // Register kardex via HTTP (snapshot)
+            registerKardexMovement(
+                    savedTool.getId(),
+                    savedTool.getName(),
+                    savedTool.getCategory(),
+                    rutUser,
+                    "Ingreso",
+                    tool.getAmount()
+            );
 
-        return savedTool;
+            return savedTool;
+        });
     }
 
     // Update tool
     public ToolEntity updateTool(Long id, String newState, Integer newAmount,
                                  Integer newRepositionValue, String rutUser) {
 
-        ToolEntity tool = toolRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("Tool not found"));
-
         // ==========================
-        // 1) MOVE STATE (bucket logic)
+        // 1) MOVE STATE (bucket logic): one unit, same atomic path as /transitions
         // ==========================
         if (newState != null) {
 
             if (!validState.contains(newState))
                 throw new IllegalArgumentException("Invalid state");
 
-            if (tool.getAmount() <= 0)
-                throw new IllegalArgumentException("No stock available");
-
-            // Reduce origin bucket by 1
-            tool.setAmount(tool.getAmount() - 1);
-            toolRepository.save(tool);
-
-            Optional<ToolEntity> targetOpt =
-                    toolRepository.findFirstByNameAndCategoryAndInitialState(
-                            tool.getName(), tool.getCategory(), newState
-                    );
-
-            ToolEntity target = targetOpt.orElseGet(() ->
-                    new ToolEntity(
-                            null,
-                            tool.getName(),
-                            tool.getCategory(),
-                            newState,
-                            tool.getRepositionValue(),
-                            "Disponible".equalsIgnoreCase(newState),
-                            0
-                    )
-            );
+            return inTransactionWithRetry(() -> {
+                ToolEntity tool = toolRepository.findById(id)
+                        .orElseThrow(() -> new IllegalArgumentException("Tool not found"));
 
-            target.setAmount(target.getAmount() + 1);
-            ToolEntity savedTarget = toolRepository.save(target);
+                applyMoves(List.of(new StateTransition(id, newState, 1)), rutUser, null);
 
-            // Kardex movement for the DESTINATION bucket (snapshot = name/category)
-            registerKardexMovement(
-                    savedTarget.getId(),
-                    savedTarget.getName(),
-                    savedTarget.getCategory(),
-                    rutUser,
-                    "Cambio de estado: " + newState,
-                    savedTarget.getAmount()
-            );
-
-            return savedTarget;
+                return toolRepository.findFirstByNameAndCategoryAndInitialState(
+                        tool.getName(), tool.getCategory(), newState
+                ).orElseThrow(() -> new IllegalStateException("Target bucket not found"));
+            });
         }
 
         // ==========================
-        // 2) EDIT ATTRIBUTES (same row)
+        // 2) EDIT ATTRIBUTES (same row, @Version: a concurrent change -> retry on fresh data)
         // ==========================
-        boolean changed = false;
+        if (newAmount != null && newAmount < 0)
+            throw new IllegalArgumentException("Amount cannot be negative");
+        if (newRepositionValue != null && newRepositionValue < 0)
+            throw new IllegalArgumentException("Reposition value cannot be negative");
+
+        return inTransactionWithRetry(() -> {
+            ToolEntity tool = toolRepository.findById(id)
+                    .orElseThrow(() -> new IllegalArgumentException("Tool not found"));
+
+            boolean changed = false;
+
+            if (newAmount != null) {
+                tool.setAmount(newAmount);
+                changed = true;
+            }
+
+            if (newRepositionValue != null) {
+                tool.setRepositionValue(newRepositionValue);
+                changed = true;
+            }
+
+            ToolEntity saved = toolRepository.saveAndFlush(tool);
+
+            // ✅ Opcional (recomendado): registrar cambios de edición en Kardex también
+            // Si NO quieres kardex cuando solo se edita amount/repositionValue, comenta este bloque.
+            if (changed) {
+                String type = "Actualización herramienta";
+                registerKardexMovement(
+                        saved.getId(),
+                        saved.getName(),
+                        saved.getCategory(),
+                        rutUser,
+                        type,
+                        saved.getAmount()
+                );
+            }
+
+            return saved;
+        });
+    }
+
+    // Bulk move (bucket logic): all moves in one transaction, atomic stock updates per bucket
+    public List<ToolEntity> applyTransitions(List<StateTransition> moves, String rutUser) {
+        return inTransactionWithRetry(() -> applyMoves(moves, rutUser, null));
+    }
+
+    // Keyed bulk move: the same opKey is applied at most once (a retry gets the current buckets back)
+    // and can be undone with revertTransitions. Used by loan-service's creation saga.
+    public List<ToolEntity> applyTransitions(List<StateTransition> moves, String rutUser, String opKey) {
+        if (opKey == null || opKey.isBlank()) return applyTransitions(moves, rutUser);
+
+        return inTransactionWithRetry(() -> {
+            Optional<ToolTransitionOpEntity> existing = transitionOpRepository.findForUpdate(opKey);
+            if (existing.isPresent()) {
+                if (OP_REVERTED.equals(existing.get().getStatus()))
+                    throw new IllegalArgumentException("Operation already reverted: " + opKey);
+                Set<Long> ids = new LinkedHashSet<>();
+                for (StateTransition r : parseMoves(existing.get().getReverseMoves())) ids.add(r.getToolId());
+                return toolRepository.findAllById(ids);
+            }
+
+            // insert first: a concurrent apply/revert of the same key fails on the primary key
+            LocalDateTime now = LocalDateTime.now();
+            transitionOpRepository.saveAndFlush(new ToolTransitionOpEntity(opKey, OP_APPLIED, rutUser, "", now, now));
+
+            List<StateTransition> reverse = new ArrayList<>();
+            List<ToolEntity> saved = applyMoves(moves, rutUser, reverse);
+
+            // re-read: applyMoves clears the persistence context
+            ToolTransitionOpEntity op = transitionOpRepository.findById(opKey).orElseThrow();
+            op.setReverseMoves(formatMoves(reverse));
+            transitionOpRepository.save(op);
+            return saved;
+        });
+    }
+
+    // Compensation: undo a keyed apply. Unknown key -> REVERTED tombstone (no-op), so an apply that
+    // is still in flight is rejected when it arrives. Reverting twice is a no-op.
+    public List<ToolEntity> revertTransitions(String opKey, String rutUser) {
+        if (opKey == null || opKey.isBlank()) throw new IllegalArgumentException("opKey is required");
+
+        return inTransactionWithRetry(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            ToolTransitionOpEntity op = transitionOpRepository.findForUpdate(opKey).orElse(null);
+            if (op == null) {
+                transitionOpRepository.saveAndFlush(new ToolTransitionOpEntity(opKey, OP_REVERTED, rutUser, "", now, now));
+                return List.<ToolEntity>of();
+            }
+            if (OP_REVERTED.equals(op.getStatus())) return List.<ToolEntity>of();
+
+            List<StateTransition> reverse = parseMoves(op.getReverseMoves());
+            List<ToolEntity> saved = reverse.isEmpty() ? List.of() : applyMoves(reverse, rutUser, null);
+
+            ToolTransitionOpEntity fresh = transitionOpRepository.findById(opKey).orElseThrow();
+            fresh.setStatus(OP_REVERTED);
+            fresh.setUpdatedAt(now);
+            transitionOpRepository.save(fresh);
+            return saved;
+        });
+    }
+
+    // Must run inside a transaction. Origins: conditional decrement (amount >= qty), in id order.
+    // Targets: upsert into the bucket, in key order. Stable ordering keeps lock waits short and
+    // deadlocks rare; inTransactionWithRetry absorbs the ones that still happen.
+    // reverseOut (optional) receives one move per input move: target bucket -> origin state
+    private List<ToolEntity> applyMoves(List<StateTransition> moves, String rutUser, List<StateTransition> reverseOut) {
+        if (moves == null || moves.isEmpty()) throw new IllegalArgumentException("At least one transition is required");
+
+        Map<Long, Integer> qtyByOrigin = new TreeMap<>();
+        for (StateTransition m : moves) {
+            if (m == null || m.getToolId() == null) throw new IllegalArgumentException("Each transition requires 'toolId'");
+            if (!validState.contains(m.getToState())) throw new IllegalArgumentException("Invalid state: " + m.getToState());
+            int qty = (m.getQty() == null) ? 1 : m.getQty();
+            if (qty <= 0) throw new IllegalArgumentException("qty must be >= 1");
+            qtyByOrigin.merge(m.getToolId(), qty, Integer::sum);
+        }
+
+        // name/category/state/repositionValue of each origin (not its amount: that is updated in SQL)
+        Map<Long, ToolEntity> origins = new HashMap<>();
+        for (ToolEntity t : toolRepository.findAllById(qtyByOrigin.keySet())) origins.put(t.getId(), t);
+
+        for (Map.Entry<Long, Integer> e : qtyByOrigin.entrySet()) {
+            if (!origins.containsKey(e.getKey())) throw new IllegalArgumentException("Tool not found: " + e.getKey());
+            if (toolRepository.decrementIfAvailable(e.getKey(), e.getValue()) == 0)
+                throw new IllegalArgumentException("No stock available (id=" + e.getKey() + ")");
+        }
 
-        if (newAmount != null) {
-            if (newAmount < 0) throw new IllegalArgumentException("Amount cannot be negative");
-            tool.setAmount(newAmount);
-            changed = true;
+        Map<String, Integer> qtyByTarget = new TreeMap<>();
+        Map<String, ToolEntity> originByTarget = new HashMap<>();
+        for (StateTransition m : moves) {
+            ToolEntity origin = origins.get(m.getToolId());
+            String targetKey = bucketKey(origin.getName(), origin.getCategory(), m.getToState());
+            qtyByTarget.merge(targetKey, (m.getQty() == null) ? 1 : m.getQty(), Integer::sum);
+            originByTarget.putIfAbsent(targetKey, origin);
         }
 
-        if (newRepositionValue != null) {
-            if (newRepositionValue < 0) throw new IllegalArgumentException("Reposition value cannot be negative");
-            tool.setRepositionValue(newRepositionValue);
-            changed = true;
+        Map<String, Long> targetIds = new HashMap<>();
+        for (Map.Entry<String, Integer> e : qtyByTarget.entrySet()) {
+            ToolEntity origin = originByTarget.get(e.getKey());
+            String toState = e.getKey().substring(e.getKey().lastIndexOf("||") + 2);
+            targetIds.put(e.getKey(), toolRepository.addToBucket(
+                    origin.getName(),
+                    origin.getCategory(),
+                    toState,
+                    origin.getRepositionValue(),
+                    "Disponible".equalsIgnoreCase(toState),
+                    e.getValue()
+            ));
         }
 
-        ToolEntity saved = toolRepository.save(tool);
+        // fresh rows (the conditional decrement cleared the persistence context)
+        Set<Long> touchedIds = new LinkedHashSet<>(qtyByOrigin.keySet());
+        touchedIds.addAll(targetIds.values());
+        Map<Long, ToolEntity> touched = new LinkedHashMap<>();
+        for (ToolEntity t : toolRepository.findAllById(touchedIds)) touched.put(t.getId(), t);
+
+        List<ToolEntity> movedTargets = new ArrayList<>();
+        for (StateTransition m : moves) {
+            ToolEntity origin = origins.get(m.getToolId());
+            Long targetId = targetIds.get(bucketKey(origin.getName(), origin.getCategory(), m.getToState()));
+            movedTargets.add(touched.get(targetId));
+            if (reverseOut != null) {
+                reverseOut.add(new StateTransition(targetId, origin.getInitialState(), (m.getQty() == null) ? 1 : m.getQty()));
+            }
+        }
 
-        // ✅ Opcional (recomendado): registrar cambios de edición en Kardex también
-        // Si NO quieres kardex cuando solo se edita amount/repositionValue, comenta este bloque.
-        if (changed) {
-            String type = "Actualización herramienta";
+        // Kardex movement for every DESTINATION bucket (snapshot = name/category)
+        for (ToolEntity target : movedTargets) {
             registerKardexMovement(
-                    saved.getId(),
-                    saved.getName(),
-                    saved.getCategory(),
+                    target.getId(),
+                    target.getName(),
+                    target.getCategory(),
                     rutUser,
-                    type,
-                    saved.getAmount()
+                    "Cambio de estado: " + target.getInitialState(),
+                    target.getAmount()
             );
         }
 
-        return saved;
+        // ...and for every ORIGIN bucket, with its balance after the move (kardex stock projection)
+        for (Long originId : qtyByOrigin.keySet()) {
+            registerBalance(touched.get(originId), rutUser, "Salida por cambio de estado");
+        }
+
+        return new ArrayList<>(touched.values());
+    }
+
+    // Runs work in its own transaction and retries it (bounded, with a short backoff) when it loses
+    // an optimistic-lock check, a deadlock or a unique-bucket race to a concurrent request.
+    // Other integrity violations (NOT NULL, FK, check, opKey insert) fail the same way every time
+    // and are rethrown at once.
+    private <T> T inTransactionWithRetry(Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(s -> work.get());
+            } catch (ConcurrencyFailureException | DataIntegrityViolationException ex) {
+                if (attempt >= maxConcurrencyAttempts || !isRetryable(ex)) throw ex;
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(5, 20L * attempt));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    static boolean isRetryable(RuntimeException ex) {
+        if (ex instanceof ConcurrencyFailureException) return true;
+        // unique violation (23505) on the bucket key only
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql && "23505".equals(sql.getSQLState())) {
+                return sql.getMessage() != null && sql.getMessage().contains("uk_tool_bucket");
+            }
+        }
+        return false;
+    }
+
+    // ==========================
+    // HOLDS (checkout): short-lived reservations with TTL
+    // ==========================
+    // Takes the units out of their "Disponible" buckets right away (same conditional decrement as
+    // transitions), so concurrent checkouts can never oversell. Expires after ttlSeconds.
+    // The hold belongs to the caller's rut; only a privileged caller may hold for another rutUser.
+    public ToolHoldEntity createHold(List<ToolHoldEntity.HoldLine> lines, String rutUser, Integer ttlSeconds,
+                                     Caller caller) {
+        if (lines == null || lines.isEmpty()) throw new IllegalArgumentException("At least one line is required");
+        String owner = actingRut(caller, rutUser);
+
+        Map<Long, Integer> qtyByTool = new TreeMap<>();
+        for (ToolHoldEntity.HoldLine l : lines) {
+            if (l == null || l.getToolId() == null) throw new IllegalArgumentException("Each line requires 'toolId'");
+            if (l.getQty() == null || l.getQty() <= 0) throw new IllegalArgumentException("qty must be >= 1");
+            qtyByTool.merge(l.getToolId(), l.getQty(), Integer::sum);
+        }
+
+        int ttl = (ttlSeconds == null) ? holdTtlSeconds : ttlSeconds;
+        if (ttl <= 0 || ttl > holdMaxTtlSeconds)
+            throw new IllegalArgumentException("ttlSeconds must be between 1 and " + holdMaxTtlSeconds);
+
+        ToolHoldEntity hold = inTransactionWithRetry(() -> {
+            Map<Long, ToolEntity> tools = new HashMap<>();
+            for (ToolEntity t : toolRepository.findAllById(qtyByTool.keySet())) tools.put(t.getId(), t);
+
+            List<ToolHoldEntity.HoldLine> held = new ArrayList<>();
+            for (Map.Entry<Long, Integer> e : qtyByTool.entrySet()) {
+                ToolEntity t = tools.get(e.getKey());
+                if (t == null) throw new IllegalArgumentException("Tool not found: " + e.getKey());
+                if (!"Disponible".equalsIgnoreCase(t.getInitialState()))
+                    throw new IllegalArgumentException("Tool id=" + t.getId() + " is not 'Disponible'.");
+                if (toolRepository.decrementIfAvailable(e.getKey(), e.getValue()) == 0)
+                    throw new IllegalArgumentException("No stock available (id=" + e.getKey() + ")");
+                held.add(new ToolHoldEntity.HoldLine(e.getKey(), e.getValue()));
+            }
+            // balance of the "Disponible" buckets after taking the units out
+            for (ToolEntity t : toolRepository.findAllById(qtyByTool.keySet())) {
+                registerBalance(t, owner, "Reserva (hold)");
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            return holdRepository.save(new ToolHoldEntity(
+                    UUID.randomUUID().toString(), owner, HOLD_HELD, now.plusSeconds(ttl), now, now, held));
+        });
+
+        expiryWheel.schedule(hold.getHoldId(), System.currentTimeMillis() + ttl * 1000L);
+        return hold;
+    }
+
+    public ToolHoldEntity getHold(String holdId, Caller caller) {
+        ToolHoldEntity hold = holdRepository.findById(holdId)
+                .orElseThrow(() -> new IllegalArgumentException("Hold not found: " + holdId));
+        checkOwner(hold, caller);
+        return hold;
+    }
+
+    // Moves the held units to toState (default "Prestada") and closes the hold.
+    // expectedToolIds (optional): must match the hold lines (the caller's view of what it holds).
+    // opKey (optional): same contract as keyed transitions, at most once and revertible.
+    // Only the hold's owner (or a privileged caller) may commit it, replays included.
+    public List<ToolEntity> commitHold(String holdId, String toState, Collection<Long> expectedToolIds,
+                                       String rutUser, String opKey, Caller caller) {
+        String target = (toState == null || toState.isBlank()) ? "Prestada" : toState;
+        if (!validState.contains(target) || "Disponible".equalsIgnoreCase(target))
+            throw new IllegalArgumentException("Invalid target state: " + target);
+        String actor = actingRut(caller, rutUser);
+
+        return inTransactionWithRetry(() -> {
+            boolean keyed = opKey != null && !opKey.isBlank();
+            LocalDateTime now = LocalDateTime.now();
+
+            // hold first (then the op row): the owner check also covers the keyed replay below
+            ToolHoldEntity hold = holdRepository.findForUpdate(holdId)
+                    .orElseThrow(() -> new IllegalArgumentException("Hold not found: " + holdId));
+            checkOwner(hold, caller);
+
+            if (keyed) {
+                Optional<ToolTransitionOpEntity> existing = transitionOpRepository.findForUpdate(opKey);
+                if (existing.isPresent()) {
+                    if (OP_REVERTED.equals(existing.get().getStatus()))
+                        throw new IllegalArgumentException("Operation already reverted: " + opKey);
+                    Set<Long> ids = new LinkedHashSet<>();
+                    for (StateTransition r : parseMoves(existing.get().getReverseMoves())) ids.add(r.getToolId());
+                    return toolRepository.findAllById(ids);
+                }
+            }
+
+            if (!HOLD_HELD.equals(hold.getStatus()))
+                throw new IllegalArgumentException("Hold " + holdId + " is " + hold.getStatus());
+            if (!hold.getExpiresAt().isAfter(now))
+                throw new IllegalArgumentException("Hold " + holdId + " expired");
+
+            Set<Long> heldIds = new TreeSet<>();
+            for (ToolHoldEntity.HoldLine l : hold.getLines()) heldIds.add(l.getToolId());
+            if (expectedToolIds != null && !heldIds.equals(new TreeSet<>(expectedToolIds)))
+                throw new IllegalArgumentException("Hold " + holdId + " does not cover tools " + expectedToolIds);
+
+            hold.setStatus(HOLD_COMMITTED);
+            hold.setUpdatedAt(now);
+            holdRepository.saveAndFlush(hold);
+            if (keyed) {
+                transitionOpRepository.saveAndFlush(new ToolTransitionOpEntity(opKey, OP_APPLIED, actor, "", now, now));
+            }
+
+            Map<Long, ToolEntity> origins = new HashMap<>();
+            for (ToolEntity t : toolRepository.findAllById(heldIds)) origins.put(t.getId(), t);
+
+            List<StateTransition> reverse = new ArrayList<>();
+            Set<Long> targetIds = new LinkedHashSet<>();
+            for (ToolHoldEntity.HoldLine l : hold.getLines()) {
+                ToolEntity origin = origins.get(l.getToolId());
+                Long targetId = toolRepository.addToBucket(
+                        origin.getName(), origin.getCategory(), target, origin.getRepositionValue(), false, l.getQty());
+                targetIds.add(targetId);
+                reverse.add(new StateTransition(targetId, origin.getInitialState(), l.getQty()));
+            }
+
+            List<ToolEntity> targets = toolRepository.findAllById(targetIds);
+            for (ToolEntity t : targets) {
+                registerKardexMovement(
+                        t.getId(),
+                        t.getName(),
+                        t.getCategory(),
+                        actor,
+                        "Cambio de estado: " + t.getInitialState(),
+                        t.getAmount()
+                );
+            }
+
+            if (keyed) {
+                ToolTransitionOpEntity op = transitionOpRepository.findById(opKey).orElseThrow();
+                op.setReverseMoves(formatMoves(reverse));
+                transitionOpRepository.save(op);
+            }
+            return targets;
+        });
+    }
+
+    // Gives the units back (owner or privileged caller). Releasing a released/expired hold is a no-op.
+    public ToolHoldEntity releaseHold(String holdId, Caller caller) {
+        return inTransactionWithRetry(() -> {
+            ToolHoldEntity hold = holdRepository.findForUpdate(holdId)
+                    .orElseThrow(() -> new IllegalArgumentException("Hold not found: " + holdId));
+            checkOwner(hold, caller);
+            if (HOLD_COMMITTED.equals(hold.getStatus()))
+                throw new IllegalArgumentException("Hold " + holdId + " is already committed");
+            if (HOLD_HELD.equals(hold.getStatus())) restoreHold(hold, HOLD_RELEASED);
+            return hold;
+        });
+    }
+
+    // wheel: every second, only the holds that are due
+    @Scheduled(fixedDelayString = "${holds.wheel-tick-ms:1000}")
+    public void expireDueHolds() {
+        for (String holdId : expiryWheel.drainDue(System.currentTimeMillis())) expireHold(holdId);
+    }
+
+    // safety net: holds of other instances, from before a restart, or missed by the wheel
+    @Scheduled(fixedDelayString = "${holds.sweep-ms:30000}")
+    public void sweepExpiredHolds() {
+        for (String holdId : holdRepository.findExpiredIds(LocalDateTime.now(), PageRequest.of(0, 500))) {
+            expireHold(holdId);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadHeldHolds() {
+        for (ToolHoldEntity h : holdRepository.findAllHeld()) {
+            expiryWheel.schedule(h.getHoldId(), h.getExpiresAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+    }
+
+    private void expireHold(String holdId) {
+        try {
+            inTransactionWithRetry(() -> {
+                ToolHoldEntity hold = holdRepository.findForUpdate(holdId).orElse(null);
+                if (hold != null && HOLD_HELD.equals(hold.getStatus()) && !hold.getExpiresAt().isAfter(LocalDateTime.now())) {
+                    restoreHold(hold, HOLD_EXPIRED);
+                }
+                return null;
+            });
+        } catch (RuntimeException ignored) {
+            // sigue HELD: el sweep lo reintenta
+        }
+    }
+
+    private void restoreHold(ToolHoldEntity hold, String status) {
+        hold.setStatus(status);
+        hold.setUpdatedAt(LocalDateTime.now());
+        holdRepository.saveAndFlush(hold);
+        Set<Long> ids = new TreeSet<>();
+        for (ToolHoldEntity.HoldLine l : hold.getLines()) {
+            toolRepository.incrementStock(l.getToolId(), l.getQty());
+            ids.add(l.getToolId());
+        }
+        for (ToolEntity t : toolRepository.findAllById(ids)) {
+            registerBalance(t, hold.getRutUser(), "Liberación de reserva (hold)");
+        }
+    }
+
+    // rut the operation is recorded under: a privileged caller acts for rutUser, anyone else as itself
+    private String actingRut(Caller caller, String rutUser) {
+        if (caller.privileged()) {
+            if (rutUser == null || rutUser.isBlank()) throw new IllegalArgumentException("rutUser is required");
+            return rutUser;
+        }
+        if (rutUser != null && !rutUser.isBlank() && !sameRut(rutUser, caller.rut()))
+            throw new AccessDeniedException("rutUser does not match the caller");
+        return caller.rut();
+    }
+
+    private void checkOwner(ToolHoldEntity hold, Caller caller) {
+        if (!caller.privileged() && !sameRut(hold.getRutUser(), caller.rut()))
+            throw new AccessDeniedException("Hold " + hold.getHoldId() + " belongs to another user");
+    }
+
+    // "12.345.678-k" == "12345678K" (same normalization as client-service)
+    static boolean sameRut(String a, String b) {
+        String na = normalizeRut(a);
+        return na != null && !na.isEmpty() && na.equals(normalizeRut(b));
+    }
+
+    private static String normalizeRut(String rut) {
+        if (rut == null) return null;
+        String raw = rut.replace(".", "").replace(" ", "").toUpperCase();
+        if (!raw.contains("-")) {
+            if (raw.length() < 2) return raw;
+            raw = raw.substring(0, raw.length() - 1) + "-" + raw.substring(raw.length() - 1);
+        }
+        return raw;
+    }
+
+    private String bucketKey(String name, String category, String state) {
+        return name + "||" + category + "||" + state;
+    }
+
+    // "toolId:state:qty|..." (states never contain ':' or '|')
+    private String formatMoves(List<StateTransition> moves) {
+        StringBuilder sb = new StringBuilder();
+        for (StateTransition m : moves) {
+            if (sb.length() > 0) sb.append('|');
+            sb.append(m.getToolId()).append(':').append(m.getToState()).append(':').append(m.getQty());
+        }
+        return sb.toString();
+    }
+
+    private List<StateTransition> parseMoves(String raw) {
+        List<StateTransition> out = new ArrayList<>();
+        if (raw == null || raw.isBlank()) return out;
+        for (String part : raw.split("\\|")) {
+            String[] f = part.split(":");
+            out.add(new StateTransition(Long.valueOf(f[0]), f[1], Integer.valueOf(f[2])));
+        }
+        return out;
     }
 
     public ToolEntity getToolByName(String name) {
@@ -213,6 +655,41 @@ public class ToolService {
         return toolRepository.findIdsByNameCategoryAndState(name.trim(), category.trim(), state.trim());
     }
 
+    // Batch lookup: tool rows + ids of the buckets in `state` with the same name/category (one query each)
+    public List<ToolBatchRow> getBatch(List<Long> ids, String state) {
+        if (ids == null || ids.isEmpty()) throw new IllegalArgumentException("ids are required");
+        if (state == null || state.isBlank()) throw new IllegalArgumentException("state is required");
+
+        List<ToolEntity> tools = toolRepository.findAllById(new LinkedHashSet<>(ids));
+
+        Set<String> names = new HashSet<>();
+        for (ToolEntity t : tools) {
+            if (t.getName() != null) names.add(t.getName().toLowerCase());
+        }
+
+        Map<String, List<Long>> idsByKey = new HashMap<>();
+        if (!names.isEmpty()) {
+            for (ToolEntity b : toolRepository.findAllByStateAndLowerNameIn(state.trim(), names)) {
+                idsByKey.computeIfAbsent(nameCategoryKey(b), k -> new ArrayList<>()).add(b.getId());
+            }
+        }
+
+        List<ToolBatchRow> out = new ArrayList<>();
+        for (ToolEntity t : tools) {
+            out.add(new ToolBatchRow(t, idsByKey.getOrDefault(nameCategoryKey(t), List.of())));
+        }
+        return out;
+    }
+
+    private String nameCategoryKey(ToolEntity t) {
+        String name = (t.getName() == null) ? "" : t.getName().toLowerCase();
+        String category = (t.getCategory() == null) ? "" : t.getCategory().toLowerCase();
+        return name + "||" + category;
+    }
+
+    // Kardex goes to the outbox (same transaction); KardexOutboxDispatcher ships it in batches.
+    // Same checks as kardex-service's batch endpoint: an invalid movement fails the stock change
+    // here instead of being rejected later from the outbox.
     private void registerKardexMovement(
             Long toolId,
             String toolNameSnapshot,
@@ -221,19 +698,39 @@ public class ToolService {
             String type,
             int stock
     ) {
-        Map<String, Object> body = new HashMap<>();
-        body.put("toolId", toolId);
-        body.put("toolNameSnapshot", toolNameSnapshot);
-        body.put("toolCategorySnapshot", toolCategorySnapshot);
-        body.put("rutUser", rutUser);
-        body.put("type", type);
-        body.put("movementDate", LocalDate.now());
-        body.put("stock", stock);
-
-        restTemplate.postForEntity(
-                KARDEX_SERVICE_URL,
-                body,
-                Void.class
+        if (toolId == null) throw new IllegalArgumentException("Kardex movement requires toolId");
+        if (toolNameSnapshot == null || toolNameSnapshot.isBlank())
+            throw new IllegalArgumentException("Kardex movement requires the tool name");
+        if (toolCategorySnapshot == null || toolCategorySnapshot.isBlank())
+            throw new IllegalArgumentException("Kardex movement requires the tool category");
+        if (rutUser == null || rutUser.isBlank()) throw new IllegalArgumentException("rutUser is required");
+        if (type == null || type.isBlank()) throw new IllegalArgumentException("Kardex movement requires a type");
+
+        kardexOutboxRepository.save(new KardexOutboxEntity(
+                null,
+                toolId,
+                toolNameSnapshot,
+                toolCategorySnapshot,
+                rutUser,
+                type,
+                LocalDate.now(),
+                stock,
+                0,
+                null,
+                null
+        ));
+    }
+
+    // Balance row (stock = bucket amount after the change) for buckets that lost or got back units
+    private void registerBalance(ToolEntity bucket, String rutUser, String type) {
+        if (bucket == null) return;
+        registerKardexMovement(
+                bucket.getId(),
+                bucket.getName(),
+                bucket.getCategory(),
+                (rutUser == null || rutUser.isBlank()) ? "system" : rutUser,
+                type,
+                bucket.getAmount()
         );
     }
 
@@ -249,4 +746,24 @@ public class ToolService {
         private String name;
         private String category;
     }
+
+    // Who is calling (from the JWT, or the internal key): privileged = ADMIN or internal key,
+    // may act for any rutUser; otherwise rut is the caller's own (token claim)
+    public record Caller(String rut, boolean privileged) {}
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class StateTransition {
+        private Long toolId;
+        private String toState;
+        private Integer qty;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ToolBatchRow {
+        private ToolEntity tool;
+        private List<Long> stateIds; // ids of the same name/category in the requested state
+    }
 }
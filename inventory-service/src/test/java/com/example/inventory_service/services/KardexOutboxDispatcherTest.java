@@ -0,0 +1,147 @@
+package com.example.inventory_service.services;
+
+import com.example.inventory_service.entities.KardexOutboxEntity;
+import com.example.inventory_service.repositories.KardexOutboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class KardexOutboxDispatcherTest {
+
+    private KardexOutboxRepository outboxRepository;
+    private RestTemplate restTemplate;
+    private KardexOutboxDispatcher dispatcher;
+
+    // sourceIds kardex-service answers 400 for (batches containing one of them too)
+    private final Set<Long> invalid = new HashSet<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        outboxRepository = mock(KardexOutboxRepository.class);
+        restTemplate = mock(RestTemplate.class);
+        dispatcher = new KardexOutboxDispatcher(outboxRepository, restTemplate);
+        ReflectionTestUtils.setField(dispatcher, "kardexBaseUrl", "http://kardex-service");
+        ReflectionTestUtils.setField(dispatcher, "batchSize", 200);
+        ReflectionTestUtils.setField(dispatcher, "internalApiKey", "k");
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 5);
+
+        when(restTemplate.postForEntity(anyString(), any(), eq(Void.class))).thenAnswer(inv -> {
+            List<Map<String, Object>> body = body(inv.getArgument(1));
+            batchSizes.add(body.size());
+            for (Map<String, Object> m : body) {
+                if (invalid.contains((Long) m.get("sourceId")))
+                    throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "rutUser is required");
+            }
+            return ResponseEntity.ok().build();
+        });
+    }
+
+    @Test
+    void deliveredBatchIsDeleted() {
+        List<KardexOutboxEntity> rows = List.of(row(1L, 0), row(2L, 0));
+        when(outboxRepository.lockNextBatch(200)).thenReturn(rows);
+
+        dispatcher.dispatch();
+
+        assertThat(batchSizes).containsExactly(2);
+        assertThat(deleted()).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void rejectedRowDoesNotHoldBackTheOthers() {
+        KardexOutboxEntity bad = row(2L, 0);
+        List<KardexOutboxEntity> rows = List.of(row(1L, 0), bad, row(3L, 0));
+        when(outboxRepository.lockNextBatch(200)).thenReturn(rows);
+        invalid.add(2L);
+
+        dispatcher.dispatch();
+
+        // whole batch, then row by row
+        assertThat(batchSizes).containsExactly(3, 1, 1, 1);
+        assertThat(deleted()).containsExactly(1L, 3L);
+        assertThat(bad.getAttempts()).isEqualTo(1);
+        assertThat(bad.getLastError()).contains("400");
+        assertThat(bad.getFailedAt()).isNull();
+    }
+
+    @Test
+    void rowRejectedMaxAttemptsTimesIsDeadLettered() {
+        KardexOutboxEntity bad = row(7L, 4);
+        when(outboxRepository.lockNextBatch(200)).thenReturn(List.of(bad));
+        invalid.add(7L);
+
+        dispatcher.dispatch();
+
+        assertThat(bad.getAttempts()).isEqualTo(5);
+        assertThat(bad.getFailedAt()).isNotNull();
+        verify(outboxRepository, never()).deleteAllInBatch(any());
+    }
+
+    @Test
+    void serverErrorKeepsTheBatchWithoutCountingAttempts() {
+        KardexOutboxEntity r = row(1L, 0);
+        when(outboxRepository.lockNextBatch(200)).thenReturn(List.of(r));
+        doThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .when(restTemplate).postForEntity(anyString(), any(), eq(Void.class));
+
+        dispatcher.dispatch();
+
+        verify(outboxRepository, never()).deleteAllInBatch(any());
+        assertThat(r.getAttempts()).isZero();
+        assertThat(r.getFailedAt()).isNull();
+    }
+
+    @Test
+    void refusedInternalKeyIsNotBlamedOnTheRows() {
+        KardexOutboxEntity r = row(1L, 0);
+        when(outboxRepository.lockNextBatch(200)).thenReturn(List.of(r));
+        doThrow(new HttpClientErrorException(HttpStatus.FORBIDDEN))
+                .when(restTemplate).postForEntity(anyString(), any(), eq(Void.class));
+
+        dispatcher.dispatch();
+
+        verify(restTemplate, times(1)).postForEntity(anyString(), any(), eq(Void.class));
+        verify(outboxRepository, never()).deleteAllInBatch(any());
+        assertThat(r.getAttempts()).isZero();
+    }
+
+    private KardexOutboxEntity row(Long id, int attempts) {
+        return new KardexOutboxEntity(id, 10L + id, "Taladro", "Eléctricas", "12345678-9", "Ingreso",
+                LocalDate.now(), 1, attempts, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> body(Object request) {
+        return (List<Map<String, Object>>) ((HttpEntity<?>) request).getBody();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> deleted() {
+        ArgumentCaptor<Iterable<KardexOutboxEntity>> captor = ArgumentCaptor.forClass(Iterable.class);
+        verify(outboxRepository).deleteAllInBatch(captor.capture());
+        List<Long> ids = new ArrayList<>();
+        for (KardexOutboxEntity r : captor.getValue()) ids.add(r.getId());
+        return ids;
+    }
+}
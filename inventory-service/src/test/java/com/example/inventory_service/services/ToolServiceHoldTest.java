@@ -0,0 +1,284 @@
+package com.example.inventory_service.services;
+
+import com.example.inventory_service.entities.ToolEntity;
+import com.example.inventory_service.entities.ToolHoldEntity;
+import com.example.inventory_service.repositories.KardexOutboxRepository;
+import com.example.inventory_service.repositories.ToolHoldRepository;
+import com.example.inventory_service.repositories.ToolRepository;
+import com.example.inventory_service.repositories.ToolTransitionOpRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// HELD -> COMMITTED | RELEASED | EXPIRED, and who may move a hold
+class ToolServiceHoldTest {
+
+    private static final String OWNER = "12.345.678-9";
+    private static final ToolService.Caller OWNER_CALLER = new ToolService.Caller("123456789", false);
+    private static final ToolService.Caller OTHER_CALLER = new ToolService.Caller("98765432-1", false);
+    private static final ToolService.Caller ADMIN = new ToolService.Caller("11111111-1", true);
+
+    private ToolRepository toolRepository;
+    private ToolHoldRepository holdRepository;
+    private ToolTransitionOpRepository transitionOpRepository;
+    private HoldExpiryWheel expiryWheel;
+    private ToolService service;
+
+    private final Map<Long, ToolEntity> tools = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        toolRepository = mock(ToolRepository.class);
+        holdRepository = mock(ToolHoldRepository.class);
+        transitionOpRepository = mock(ToolTransitionOpRepository.class);
+        expiryWheel = mock(HoldExpiryWheel.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(inv -> ((TransactionCallback<?>) inv.getArgument(0)).doInTransaction(null));
+
+        service = new ToolService();
+        ReflectionTestUtils.setField(service, "toolRepository", toolRepository);
+        ReflectionTestUtils.setField(service, "kardexOutboxRepository", mock(KardexOutboxRepository.class));
+        ReflectionTestUtils.setField(service, "transitionOpRepository", transitionOpRepository);
+        ReflectionTestUtils.setField(service, "holdRepository", holdRepository);
+        ReflectionTestUtils.setField(service, "expiryWheel", expiryWheel);
+        ReflectionTestUtils.setField(service, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(service, "maxConcurrencyAttempts", 3);
+        ReflectionTestUtils.setField(service, "holdTtlSeconds", 120);
+        ReflectionTestUtils.setField(service, "holdMaxTtlSeconds", 900);
+
+        tools.put(1L, new ToolEntity(1L, "Taladro", "Eléctricas", "Disponible", 50000, true, 4, 0));
+        tools.put(2L, new ToolEntity(2L, "Taladro", "Eléctricas", "Prestada", 50000, false, 1, 0));
+        when(toolRepository.findAllById(any())).thenAnswer(inv -> {
+            List<ToolEntity> out = new ArrayList<>();
+            for (Object id : (Iterable<?>) inv.getArgument(0)) {
+                if (tools.containsKey(id)) out.add(tools.get(id));
+            }
+            return out;
+        });
+        when(holdRepository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+    }
+
+    // ==========================
+    // create
+    // ==========================
+    @Test
+    void createHoldTakesTheUnitsForTheCaller() {
+        when(toolRepository.decrementIfAvailable(1L, 2)).thenReturn(1);
+
+        ToolHoldEntity hold = service.createHold(List.of(new ToolHoldEntity.HoldLine(1L, 2)), null, 60, OWNER_CALLER);
+
+        assertThat(hold.getStatus()).isEqualTo("HELD");
+        assertThat(hold.getRutUser()).isEqualTo("123456789");
+        assertThat(hold.getExpiresAt()).isAfter(LocalDateTime.now());
+        verify(toolRepository).decrementIfAvailable(1L, 2);
+        verify(expiryWheel).schedule(eq(hold.getHoldId()), anyLong());
+    }
+
+    @Test
+    void createHoldForAnotherRutIsDenied() {
+        assertThatThrownBy(() -> service.createHold(
+                List.of(new ToolHoldEntity.HoldLine(1L, 1)), "98765432-1", null, OWNER_CALLER))
+                .isInstanceOf(AccessDeniedException.class);
+        verify(toolRepository, never()).decrementIfAvailable(anyLong(), anyInt());
+    }
+
+    @Test
+    void privilegedCallerHoldsForRutUser() {
+        when(toolRepository.decrementIfAvailable(1L, 1)).thenReturn(1);
+
+        ToolHoldEntity hold = service.createHold(List.of(new ToolHoldEntity.HoldLine(1L, 1)), OWNER, null, ADMIN);
+
+        assertThat(hold.getRutUser()).isEqualTo(OWNER);
+    }
+
+    @Test
+    void createHoldRejectsZeroQty() {
+        assertThatThrownBy(() -> service.createHold(
+                List.of(new ToolHoldEntity.HoldLine(1L, 0)), null, null, OWNER_CALLER))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void createHoldWithoutStockFails() {
+        when(toolRepository.decrementIfAvailable(1L, 9)).thenReturn(0);
+
+        assertThatThrownBy(() -> service.createHold(
+                List.of(new ToolHoldEntity.HoldLine(1L, 9)), null, null, OWNER_CALLER))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("No stock");
+        verify(holdRepository, never()).save(any());
+    }
+
+    // ==========================
+    // get
+    // ==========================
+    @Test
+    void getHoldChecksTheOwner() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(holdRepository.findById("h1")).thenReturn(Optional.of(hold));
+
+        assertThat(service.getHold("h1", OWNER_CALLER)).isSameAs(hold);
+        assertThat(service.getHold("h1", ADMIN)).isSameAs(hold);
+        assertThatThrownBy(() -> service.getHold("h1", OTHER_CALLER)).isInstanceOf(AccessDeniedException.class);
+    }
+
+    // ==========================
+    // commit
+    // ==========================
+    @Test
+    void commitMovesTheHeldUnitsToTheTargetState() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+        when(toolRepository.addToBucket("Taladro", "Eléctricas", "Prestada", 50000, false, 2)).thenReturn(2L);
+
+        List<ToolEntity> targets = service.commitHold("h1", null, List.of(1L), null, null, OWNER_CALLER);
+
+        assertThat(hold.getStatus()).isEqualTo("COMMITTED");
+        assertThat(targets).extracting(ToolEntity::getId).containsExactly(2L);
+        verify(toolRepository).addToBucket("Taladro", "Eléctricas", "Prestada", 50000, false, 2);
+        verify(toolRepository, never()).incrementStock(anyLong(), anyInt());
+    }
+
+    @Test
+    void commitByAnotherUserIsDenied() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        assertThatThrownBy(() -> service.commitHold("h1", null, null, null, null, OTHER_CALLER))
+                .isInstanceOf(AccessDeniedException.class);
+        assertThat(hold.getStatus()).isEqualTo("HELD");
+        verify(toolRepository, never()).addToBucket(any(), any(), any(), anyInt(), anyBoolean(), anyInt());
+    }
+
+    @Test
+    void keyedReplayByAnotherUserIsDeniedBeforeTheOpIsRead() {
+        ToolHoldEntity hold = hold("COMMITTED", 60);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        assertThatThrownBy(() -> service.commitHold("h1", null, null, null, "op-1", OTHER_CALLER))
+                .isInstanceOf(AccessDeniedException.class);
+        verifyNoInteractions(transitionOpRepository);
+    }
+
+    @Test
+    void privilegedCallerCommitsAnyHold() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+        when(toolRepository.addToBucket(any(), any(), any(), anyInt(), anyBoolean(), anyInt())).thenReturn(2L);
+
+        service.commitHold("h1", null, null, "55555555-5", null, ADMIN);
+
+        assertThat(hold.getStatus()).isEqualTo("COMMITTED");
+    }
+
+    @Test
+    void expiredHoldCannotBeCommitted() {
+        ToolHoldEntity hold = hold("HELD", -1);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        assertThatThrownBy(() -> service.commitHold("h1", null, null, null, null, OWNER_CALLER))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("expired");
+    }
+
+    // ==========================
+    // release
+    // ==========================
+    @Test
+    void releaseGivesTheUnitsBack() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        service.releaseHold("h1", OWNER_CALLER);
+
+        assertThat(hold.getStatus()).isEqualTo("RELEASED");
+        verify(toolRepository).incrementStock(1L, 2);
+    }
+
+    @Test
+    void releaseByAnotherUserIsDenied() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        assertThatThrownBy(() -> service.releaseHold("h1", OTHER_CALLER)).isInstanceOf(AccessDeniedException.class);
+        assertThat(hold.getStatus()).isEqualTo("HELD");
+        verify(toolRepository, never()).incrementStock(anyLong(), anyInt());
+    }
+
+    @Test
+    void releasingACommittedHoldFails() {
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold("COMMITTED", 60)));
+
+        assertThatThrownBy(() -> service.releaseHold("h1", OWNER_CALLER))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void releasingAnExpiredHoldIsANoOp() {
+        ToolHoldEntity hold = hold("EXPIRED", -1);
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        service.releaseHold("h1", OWNER_CALLER);
+
+        assertThat(hold.getStatus()).isEqualTo("EXPIRED");
+        verify(toolRepository, never()).incrementStock(anyLong(), anyInt());
+    }
+
+    // ==========================
+    // expiry
+    // ==========================
+    @Test
+    void dueHoldsExpireAndGiveTheUnitsBack() {
+        ToolHoldEntity hold = hold("HELD", -1);
+        when(expiryWheel.drainDue(anyLong())).thenReturn(List.of("h1"));
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        service.expireDueHolds();
+
+        assertThat(hold.getStatus()).isEqualTo("EXPIRED");
+        verify(toolRepository).incrementStock(1L, 2);
+    }
+
+    @Test
+    void holdStillInItsTtlDoesNotExpire() {
+        ToolHoldEntity hold = hold("HELD", 60);
+        when(expiryWheel.drainDue(anyLong())).thenReturn(List.of("h1"));
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        service.expireDueHolds();
+
+        assertThat(hold.getStatus()).isEqualTo("HELD");
+        verify(toolRepository, never()).incrementStock(anyLong(), anyInt());
+    }
+
+    @Test
+    void committedHoldIsNotExpired() {
+        ToolHoldEntity hold = hold("COMMITTED", -1);
+        when(holdRepository.findExpiredIds(any(), any())).thenReturn(List.of("h1"));
+        when(holdRepository.findForUpdate("h1")).thenReturn(Optional.of(hold));
+
+        service.sweepExpiredHolds();
+
+        assertThat(hold.getStatus()).isEqualTo("COMMITTED");
+        verify(toolRepository, never()).incrementStock(anyLong(), anyInt());
+    }
+
+    // 2 units of tool 1, owned by OWNER, expiring in expiresInSeconds
+    private ToolHoldEntity hold(String status, int expiresInSeconds) {
+        LocalDateTime now = LocalDateTime.now();
+        return new ToolHoldEntity("h1", OWNER, status, now.plusSeconds(expiresInSeconds), now, now,
+                new ArrayList<>(List.of(new ToolHoldEntity.HoldLine(1L, 2))));
+    }
+}
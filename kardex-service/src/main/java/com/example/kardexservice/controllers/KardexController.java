@@ -1,18 +1,24 @@
 package com.example.kardexservice.controllers;
 
 import com.example.kardexservice.entities.KardexEntity;
-import com.example.kardexservice.repositories.KardexRepository;
 import com.example.kardexservice.services.KardexService;
+import com.example.kardexservice.services.StockLedgerService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/kardex")
@@ -21,7 +27,11 @@ import java.time.LocalDate;
 public class KardexController {
 
     private final KardexService kardexService;
-    private final KardexRepository kardexRepository;
+    private final StockLedgerService stockLedgerService;
+
+    // shared key for service-to-service calls without a user JWT (inventory outbox)
+    @Value("${internal.api-key}")
+    private String internalApiKey;
 
     @PreAuthorize("hasAnyRole('ADMIN')")
     @GetMapping
@@ -54,11 +64,111 @@ public class KardexController {
         return ResponseEntity.ok(out);
     }
 
+    // Scroll por cursor (movementDate, id): sin count(*) ni OFFSET, para historiales largos.
+    // after = "next" del slice anterior (vacío = primer slice)
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/stream")
+    public ResponseEntity<?> stream(
+            @RequestParam(required = false) Long toolId,
+            @RequestParam(required = false) String rutUser,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(defaultValue = "desc") String direction
+    ) {
+        rutUser = (rutUser != null && rutUser.isBlank()) ? null : rutUser;
+        try {
+            return ResponseEntity.ok(kardexService.stream(
+                    toolId, rutUser, type, start, end, name, category,
+                    after, size, "asc".equalsIgnoreCase(direction)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+    // Export NDJSON (un movimiento por línea) con los mismos filtros de la búsqueda, leído con cursor
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) Long toolId,
+            @RequestParam(required = false) String rutUser,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(defaultValue = "asc") String direction
+    ) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(kardexService.export(
+                        toolId, rutUser, type, start, end, name, category,
+                        !"desc".equalsIgnoreCase(direction)));
+    }
+
+    // =========================
+    // Stock projection (kardex_stock_daily)
+    // =========================
+    // stock del tool al cierre de "date" (hoy si no viene)
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/stock/{toolId}")
+    public ResponseEntity<?> stockAt(
+            @PathVariable Long toolId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date
+    ) {
+        return ResponseEntity.ok(stockLedgerService.stockAt(toolId, date));
+    }
+
+    // serie diaria [start, end] (máx. 1000 días)
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/stock/{toolId}/daily")
+    public ResponseEntity<?> dailyStock(
+            @PathVariable Long toolId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+    ) {
+        try {
+            return ResponseEntity.ok(stockLedgerService.dailySeries(toolId, start, end));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
 
     @PostMapping("/movements")
     public ResponseEntity<KardexEntity> create(@RequestBody KardexEntity body) {
+        validateMovement(body);
+
+        // asegurar que se cree como nuevo
+        body.setId(null);
+        body.setSourceId(null);
 
-        // validaciones mínimas
+        return ResponseEntity.ok(kardexService.save(body));
+    }
+
+    // bulk ingestion (inventory-service outbox dispatcher)
+    @PostMapping("/movements/batch")
+    public ResponseEntity<?> createBatch(
+            @RequestHeader(value = "X-Internal-Key", required = false) String key,
+            @RequestBody List<KardexEntity> body
+    ) {
+        if (internalApiKey.isBlank() || !internalApiKey.equals(key))
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        if (body == null || body.isEmpty())
+            return ResponseEntity.ok(Map.of("inserted", 0));
+
+        try {
+            body.forEach(this::validateMovement);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return ResponseEntity.ok(Map.of("inserted", kardexService.saveBatch(body)));
+    }
+
+    // validaciones mínimas
+    private void validateMovement(KardexEntity body) {
         if (body.getToolId() == null) throw new IllegalArgumentException("toolId is required");
         if (body.getToolNameSnapshot() == null || body.getToolNameSnapshot().isBlank())
             throw new IllegalArgumentException("toolNameSnapshot is required");
@@ -70,10 +180,5 @@ public class KardexController {
             throw new IllegalArgumentException("type is required");
         if (body.getMovementDate() == null) body.setMovementDate(LocalDate.now());
         if (body.getStock() == null) body.setStock(0);
-
-        // asegurar que se cree como nuevo
-        body.setId(null);
-
-        return ResponseEntity.ok(kardexRepository.save(body));
     }
 }
@@ -7,6 +7,8 @@ import lombok.*;
 import java.time.LocalDate;
 
 @Entity
+// Partitioned by month on movement_date; table, partitions and indexes are managed by
+// KardexPartitionManager (the PK is (id, movement_date) in the database)
 @Table(name = "kardex")
 @Data
 @NoArgsConstructor
@@ -15,7 +17,7 @@ public class KardexEntity {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
-    @Column(unique = true, nullable = false)
+    @Column(nullable = false)
     private Long id;
 
     // referencia (no relación JPA)
@@ -41,4 +43,8 @@ public class KardexEntity {
 
     @Column(nullable = false)
     private Integer stock;
+
+    // id of the inventory-service outbox row (null for movements posted one by one)
+    @Column(name = "source_id")
+    private Long sourceId;
 }
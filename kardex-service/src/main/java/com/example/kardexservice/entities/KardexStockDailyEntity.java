@@ -0,0 +1,44 @@
+package com.example.kardexservice.entities;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+// Stock projection: closing balance of one tool (bucket) at the end of each day it moved.
+// Maintained by StockLedgerService as movements are ingested; days without a row carry the
+// previous balance forward.
+@Entity
+@Table(name = "kardex_stock_daily")
+@IdClass(KardexStockDailyEntity.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KardexStockDailyEntity {
+
+    @Id
+    @Column(name = "tool_id", nullable = false)
+    private Long toolId;
+
+    @Id
+    @Column(name = "stock_date", nullable = false)
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate stockDate;
+
+    @Column(name = "closing_stock", nullable = false)
+    private Integer closingStock;
+
+    // movements of the tool on that day
+    @Column(nullable = false)
+    private Integer movements;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long toolId;
+        private LocalDate stockDate;
+    }
+}
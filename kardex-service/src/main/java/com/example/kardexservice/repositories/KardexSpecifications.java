@@ -0,0 +1,70 @@
+package com.example.kardexservice.repositories;
+
+import com.example.kardexservice.entities.KardexEntity;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+
+// Kardex search predicates. Each one returns null when its filter was not supplied, so
+// Specification.allOf(...) only emits the predicates actually used (no "(:x is null or ...)").
+// Backing indexes: (tool_id, movement_date), (rut_user, movement_date), (movement_date, id)
+// and trigram GIN on lower(name/category/type) for the substring filters (KardexPartitionManager).
+public final class KardexSpecifications {
+
+    private KardexSpecifications() {}
+
+    public static Specification<KardexEntity> toolId(Long toolId) {
+        return (toolId == null) ? null : (root, q, cb) -> cb.equal(root.get("toolId"), toolId);
+    }
+
+    public static Specification<KardexEntity> rutUser(String rutUser) {
+        return isBlank(rutUser) ? null : (root, q, cb) -> cb.equal(root.get("rutUser"), rutUser);
+    }
+
+    public static Specification<KardexEntity> fromDate(LocalDate start) {
+        return (start == null) ? null : (root, q, cb) -> cb.greaterThanOrEqualTo(root.get("movementDate"), start);
+    }
+
+    public static Specification<KardexEntity> toDate(LocalDate end) {
+        return (end == null) ? null : (root, q, cb) -> cb.lessThanOrEqualTo(root.get("movementDate"), end);
+    }
+
+    public static Specification<KardexEntity> typeContains(String type) {
+        return containsIgnoreCase("type", type);
+    }
+
+    public static Specification<KardexEntity> nameContains(String name) {
+        return containsIgnoreCase("toolNameSnapshot", name);
+    }
+
+    public static Specification<KardexEntity> categoryContains(String category) {
+        return containsIgnoreCase("toolCategorySnapshot", category);
+    }
+
+    // keyset: rows strictly after (movementDate, id) in the scroll direction
+    public static Specification<KardexEntity> after(LocalDate movementDate, Long id, boolean ascending) {
+        if (movementDate == null || id == null) return null;
+        return (root, q, cb) -> ascending
+                ? cb.or(
+                        cb.greaterThan(root.get("movementDate"), movementDate),
+                        cb.and(cb.equal(root.get("movementDate"), movementDate), cb.greaterThan(root.get("id"), id)))
+                : cb.or(
+                        cb.lessThan(root.get("movementDate"), movementDate),
+                        cb.and(cb.equal(root.get("movementDate"), movementDate), cb.lessThan(root.get("id"), id)));
+    }
+
+    // lower(col) like '%x%' (trigram-indexable); % and _ typed by the user are matched literally
+    private static Specification<KardexEntity> containsIgnoreCase(String attribute, String value) {
+        if (isBlank(value)) return null;
+        String escaped = value.toLowerCase()
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        String pattern = "%" + escaped + "%";
+        return (root, q, cb) -> cb.like(cb.lower(root.get(attribute)), pattern, '\\');
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
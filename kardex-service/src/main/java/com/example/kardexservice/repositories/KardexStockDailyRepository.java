@@ -0,0 +1,17 @@
+package com.example.kardexservice.repositories;
+
+import com.example.kardexservice.entities.KardexStockDailyEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+// Both lookups are PK range scans on (tool_id, stock_date)
+public interface KardexStockDailyRepository extends JpaRepository<KardexStockDailyEntity, KardexStockDailyEntity.Key> {
+
+    // balance in effect on a date = last closing on or before it
+    Optional<KardexStockDailyEntity> findFirstByToolIdAndStockDateLessThanEqualOrderByStockDateDesc(Long toolId, LocalDate date);
+
+    List<KardexStockDailyEntity> findByToolIdAndStockDateBetweenOrderByStockDateAsc(Long toolId, LocalDate start, LocalDate end);
+}
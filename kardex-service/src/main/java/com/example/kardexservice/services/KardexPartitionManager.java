@@ -0,0 +1,318 @@
+package com.example.kardexservice.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+// Monthly range partitions of kardex on movement_date (Postgres declarative partitioning).
+// - startup: converts a plain kardex table (what ddl-auto creates) into a partitioned one, once,
+//   and makes sure the partitions for the last month up to months-ahead exist
+// - archiver: partitions older than hot-months are detached, written to
+//   <archive.dir>/<name>-<first id>.csv.gz and dropped
+// Date filters (search, stream cursor) are pruned by the planner to the partitions they cover;
+// rows whose month has no partition land in kardex_default, and are moved into a partition of
+// their own month on the next daily run (or archiver pass).
+@Service
+@RequiredArgsConstructor
+public class KardexPartitionManager {
+
+    private static final String PARENT = "kardex";
+    private static final String DEFAULT_PARTITION = "kardex_default";
+    private static final String COLUMNS =
+            "id, tool_id, tool_name_snapshot, tool_category_snapshot, rut_user, type, movement_date, stock";
+    // rows moved between partitions keep their outbox id (dedupe of redelivered batches)
+    private static final String MOVED_COLUMNS = COLUMNS + ", source_id";
+
+    // serializes schema changes between instances
+    private static final long SCHEMA_LOCK = 0x6b61726465784cL;
+
+    // upper bound for the one-time backfill of monthly partitions from a legacy table
+    private static final int MAX_BACKFILL_MONTHS = 120;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${kardex.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${kardex.archive.enabled:true}")
+    private boolean archiveEnabled;
+
+    @Value("${kardex.archive.hot-months:24}")
+    private int hotMonths;
+
+    @Value("${kardex.archive.dir:./kardex-archive}")
+    private String archiveDir;
+
+    @Value("${kardex.archive.fetch-size:5000}")
+    private int fetchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(0)
+    public void onStartup() {
+        transactionTemplate.executeWithoutResult(s -> {
+            lockSchema();
+            if (!isPartitioned()) convertToPartitioned();
+            createSourceIndex();
+        });
+        ensurePartitions();
+        createIndexes();
+    }
+
+    // =========================
+    // Partitions
+    // =========================
+    // daily, so the next months always exist before the first movement lands in them
+    @Scheduled(cron = "${kardex.partitions.cron:0 10 0 * * *}")
+    public void ensurePartitions() {
+        YearMonth current = YearMonth.now();
+        for (YearMonth m = current.minusMonths(1); !m.isAfter(current.plusMonths(monthsAhead)); m = m.plusMonths(1)) {
+            ensureMonth(m);
+        }
+        drainDefaultPartition();
+    }
+
+    // Back-dated rows of months without a partition land in kardex_default: give each of those
+    // months its partition (ensureMonth moves the rows over), so the default partition stays empty
+    // and old months reach the archiver like any other.
+    private void drainDefaultPartition() {
+        List<LocalDate> months = jdbcTemplate.queryForList(
+                "select distinct date_trunc('month', movement_date)::date from " + DEFAULT_PARTITION, LocalDate.class);
+        for (LocalDate first : months) {
+            ensureMonth(YearMonth.from(first));
+        }
+    }
+
+    // Creates the month's partition, moving over rows that fell into kardex_default meanwhile
+    // (ATTACH would fail otherwise).
+    private void ensureMonth(YearMonth month) {
+        String name = partitionName(month);
+        if (tableExists(name)) return;
+
+        Date from = Date.valueOf(month.atDay(1));
+        Date to = Date.valueOf(month.plusMonths(1).atDay(1));
+
+        transactionTemplate.executeWithoutResult(s -> {
+            lockSchema();
+            if (tableExists(name)) return;
+
+            jdbcTemplate.execute("create table " + name + " (like " + PARENT + " including defaults)");
+            jdbcTemplate.update("insert into " + name + " (" + MOVED_COLUMNS + ") select " + MOVED_COLUMNS
+                    + " from " + DEFAULT_PARTITION + " where movement_date >= ? and movement_date < ?", from, to);
+            jdbcTemplate.update("delete from " + DEFAULT_PARTITION + " where movement_date >= ? and movement_date < ?", from, to);
+            jdbcTemplate.execute("alter table " + PARENT + " attach partition " + name
+                    + " for values from ('" + from + "') to ('" + to + "')");
+        });
+    }
+
+    // One-time migration of the plain table: rename it, create the partitioned parent with the same
+    // columns (the PK must include the partition key; named apart from the old kardex_pkey) and copy
+    // the rows over. Runs in one transaction.
+    private void convertToPartitioned() {
+        boolean legacy = tableExists(PARENT);
+        if (legacy) {
+            jdbcTemplate.execute("alter table " + PARENT + " rename to kardex_legacy");
+            // frees kardex_id_seq (identity or serial sequence of the old table) for the new parent
+            jdbcTemplate.execute("alter table kardex_legacy alter column id drop identity if exists");
+            jdbcTemplate.execute("alter table kardex_legacy alter column id drop default");
+            jdbcTemplate.execute("drop sequence if exists kardex_id_seq");
+        }
+
+        jdbcTemplate.execute("create sequence if not exists kardex_id_seq");
+        jdbcTemplate.execute("""
+                create table kardex (
+                    id bigint not null default nextval('kardex_id_seq'),
+                    tool_id bigint not null,
+                    tool_name_snapshot varchar(120) not null,
+                    tool_category_snapshot varchar(120) not null,
+                    rut_user varchar(20) not null,
+                    type varchar(150) not null,
+                    movement_date date not null,
+                    stock integer not null,
+                    source_id bigint,
+                    constraint kardex_part_pkey primary key (id, movement_date)
+                ) partition by range (movement_date)
+                """);
+        jdbcTemplate.execute("alter sequence kardex_id_seq owned by kardex.id");
+        jdbcTemplate.execute("create table " + DEFAULT_PARTITION + " partition of " + PARENT + " default");
+
+        if (!legacy) return;
+
+        // partitions for the months already in the table, so the copy routes straight to them
+        LocalDate min = jdbcTemplate.queryForObject("select min(movement_date) from kardex_legacy", LocalDate.class);
+        if (min != null) {
+            YearMonth first = YearMonth.from(min);
+            YearMonth floor = YearMonth.now().minusMonths(MAX_BACKFILL_MONTHS);
+            if (first.isBefore(floor)) first = floor;
+            for (YearMonth m = first; m.isBefore(YearMonth.now()); m = m.plusMonths(1)) {
+                String name = partitionName(m);
+                jdbcTemplate.execute("create table " + name + " partition of " + PARENT
+                        + " for values from ('" + m.atDay(1) + "') to ('" + m.plusMonths(1).atDay(1) + "')");
+            }
+        }
+
+        jdbcTemplate.execute("insert into " + PARENT + " (" + COLUMNS + ") select " + COLUMNS + " from kardex_legacy");
+        jdbcTemplate.execute("select setval('kardex_id_seq', (select coalesce(max(id), 0) + 1 from kardex), false)");
+        jdbcTemplate.execute("drop table kardex_legacy");
+    }
+
+    // Outbox id of movements shipped by inventory-service: KardexService.saveBatch inserts with
+    // ON CONFLICT DO NOTHING on it, so a redelivered batch is not stored twice. Not best-effort:
+    // ingestion needs it. (A unique index on a partitioned table must include movement_date.)
+    private void createSourceIndex() {
+        jdbcTemplate.execute("alter table " + PARENT + " add column if not exists source_id bigint");
+        jdbcTemplate.execute("create unique index if not exists ux_kardex_source on " + PARENT + " (source_id, movement_date)");
+    }
+
+    // Declared on the parent, so every partition (current and future) gets them.
+    // The trigram ones need pg_trgm; without it the btree indexes still serve toolId/rutUser/date filters.
+    private void createIndexes() {
+        try {
+            jdbcTemplate.execute("create index if not exists ix_kardex_date_id on kardex (movement_date, id)");
+            jdbcTemplate.execute("create index if not exists ix_kardex_tool_date on kardex (tool_id, movement_date)");
+            jdbcTemplate.execute("create index if not exists ix_kardex_rut_date on kardex (rut_user, movement_date)");
+        } catch (Exception ignored) {
+            // best effort, same as the trigram ones
+        }
+        try {
+            jdbcTemplate.execute("create extension if not exists pg_trgm");
+            jdbcTemplate.execute("create index if not exists ix_kardex_name_trgm on kardex using gin (lower(tool_name_snapshot) gin_trgm_ops)");
+            jdbcTemplate.execute("create index if not exists ix_kardex_category_trgm on kardex using gin (lower(tool_category_snapshot) gin_trgm_ops)");
+            jdbcTemplate.execute("create index if not exists ix_kardex_type_trgm on kardex using gin (lower(type) gin_trgm_ops)");
+        } catch (Exception ignored) {
+            // no pg_trgm (or no privilege to create it): substring filters fall back to a scan
+        }
+    }
+
+    // =========================
+    // Archiver
+    // =========================
+    // Each step is idempotent, so a crash between detach, export and drop is finished on the next run:
+    // detached partitions are still found by name, and the file is rewritten from the table.
+    @Scheduled(cron = "${kardex.archive.cron:0 30 3 * * *}")
+    public void archiveColdPartitions() {
+        if (!archiveEnabled) return;
+        YearMonth oldestHot = YearMonth.now().minusMonths(hotMonths);
+        drainDefaultPartition();
+
+        List<String> partitions = jdbcTemplate.queryForList("""
+                select c.relname from pg_class c join pg_namespace n on n.oid = c.relnamespace
+                where n.nspname = current_schema() and c.relkind = 'r' and c.relname ~ '^kardex_y[0-9]{4}m[0-9]{2}$'
+                order by c.relname
+                """, String.class);
+
+        for (String name : partitions) {
+            if (!monthOf(name).isBefore(oldestHot)) continue;
+            try {
+                archive(name);
+            } catch (Exception ignored) {
+                // se reintenta en la próxima pasada
+            }
+        }
+    }
+
+    private void archive(String name) throws IOException {
+        // short transaction: DETACH locks the parent until commit, the export must not run under it
+        transactionTemplate.executeWithoutResult(s -> {
+            lockSchema();
+            if (isAttached(name)) jdbcTemplate.execute("alter table " + PARENT + " detach partition " + name);
+        });
+
+        // named after its first id: a month archived again later (late back-dated rows moved out of
+        // kardex_default) gets a file of its own, and a rerun after a crash rewrites the same one
+        Long firstId = jdbcTemplate.queryForObject("select coalesce(min(id), 0) from " + name, Long.class);
+        Path dir = Paths.get(archiveDir);
+        Files.createDirectories(dir);
+        Path target = dir.resolve(name + "-" + firstId + ".csv.gz");
+        Path part = dir.resolve(name + "-" + firstId + ".csv.gz.part");
+
+        // export inside a transaction so the driver streams with a cursor (fetch size) instead of
+        // loading the whole month
+        JdbcTemplate export = new JdbcTemplate(jdbcTemplate.getDataSource());
+        export.setFetchSize(fetchSize);
+        transactionTemplate.executeWithoutResult(s -> {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(part)), StandardCharsets.UTF_8))) {
+                out.write(COLUMNS.replace(", ", ","));
+                out.write('\n');
+                export.query("select " + COLUMNS + " from " + name + " order by movement_date, id", rs -> {
+                    try {
+                        for (int i = 1; i <= 8; i++) {
+                            if (i > 1) out.write(',');
+                            out.write(csv(rs.getString(i)));
+                        }
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // the file is complete and durable on disk before the rows go away
+        transactionTemplate.executeWithoutResult(s -> {
+            lockSchema();
+            if (!isAttached(name)) jdbcTemplate.execute("drop table if exists " + name);
+        });
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    private void lockSchema() {
+        jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?)", Object.class, SCHEMA_LOCK);
+    }
+
+    private boolean isPartitioned() {
+        String kind = jdbcTemplate.queryForObject(
+                "select coalesce((select relkind::text from pg_class where oid = to_regclass(?)), '')", String.class, PARENT);
+        return "p".equals(kind);
+    }
+
+    private boolean tableExists(String name) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("select to_regclass(?) is not null", Boolean.class, name));
+    }
+
+    private boolean isAttached(String name) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "select exists(select 1 from pg_inherits where inhrelid = to_regclass(?) and inhparent = to_regclass(?))",
+                Boolean.class, name, PARENT));
+    }
+
+    // kardex_y2025m03
+    private String partitionName(YearMonth month) {
+        return String.format("kardex_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private YearMonth monthOf(String partitionName) {
+        return YearMonth.of(Integer.parseInt(partitionName.substring(8, 12)), Integer.parseInt(partitionName.substring(13, 15)));
+    }
+
+    private String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
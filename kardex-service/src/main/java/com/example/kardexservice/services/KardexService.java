@@ -2,18 +2,59 @@ package com.example.kardexservice.services;
 
 import com.example.kardexservice.entities.KardexEntity;
 import com.example.kardexservice.repositories.KardexRepository;
+import com.example.kardexservice.repositories.KardexSpecifications;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class KardexService {
 
+    // rows per INSERT statement (7 params each, well under the driver's bind limit)
+    private static final int INSERT_CHUNK = 500;
+
+    // NDJSON export: rows per DB round trip / per flush + persistence-context clear
+    private static final int EXPORT_FETCH = 1000;
+    private static final byte[] NEWLINE = {'\n'};
+
     private final KardexRepository kardexRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final StockLedgerService stockLedgerService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     public Page<KardexEntity> search(
             Long toolId,
@@ -25,22 +66,184 @@ public class KardexService {
             String category,
             Pageable pageable
     ) {
-        String typeLower   = (type == null || type.isBlank()) ? "" : type.toLowerCase();
-        String namePat     = (name == null || name.isBlank()) ? "" : "%" + name.toLowerCase() + "%";
-        String categoryPat = (category == null || category.isBlank()) ? "" : "%" + category.toLowerCase() + "%";
-
-        boolean hasFrom = (start != null);
-        boolean hasTo   = (end   != null);
-
-        return kardexRepository.search(
-                toolId,
-                rutUser,
-                typeLower,
-                hasFrom, start,
-                hasTo,   end,
-                namePat,
-                categoryPat,
-                pageable
+        return kardexRepository.findAll(filters(toolId, rutUser, type, start, end, name, category), pageable);
+    }
+
+    // Keyset scroll ordered by (movementDate, id): no count(*), no OFFSET. "after" is the opaque
+    // token returned as "next" by the previous slice (null = first slice).
+    public StreamSlice stream(
+            Long toolId,
+            String rutUser,
+            String type,
+            LocalDate start,
+            LocalDate end,
+            String name,
+            String category,
+            String after,
+            int size,
+            boolean ascending
+    ) {
+        Cursor cursor = decodeCursor(after);
+        int limit = Math.min(Math.max(size, 1), 500);
+
+        Specification<KardexEntity> spec = filters(toolId, rutUser, type, start, end, name, category);
+        if (cursor != null) spec = spec.and(KardexSpecifications.after(cursor.movementDate(), cursor.id(), ascending));
+
+        Sort.Direction dir = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Sort order = Sort.by(dir, "movementDate").and(Sort.by(dir, "id"));
+
+        // limit + 1 rows: the extra one only tells whether there is a next slice
+        List<KardexEntity> rows = kardexRepository.findBy(spec, q -> q.sortBy(order).limit(limit + 1).all());
+        boolean hasNext = rows.size() > limit;
+        List<KardexEntity> content = hasNext ? rows.subList(0, limit) : rows;
+
+        String next = null;
+        if (hasNext) {
+            KardexEntity last = content.get(content.size() - 1);
+            next = encodeCursor(last.getMovementDate(), last.getId());
+        }
+        return new StreamSlice(content, content.size(), hasNext, next);
+    }
+
+    // Same filters as search, as NDJSON (one movement per line) in (movementDate, id) order.
+    // Read through a server-side cursor in a read-only transaction when the response is written,
+    // so heap stays flat whatever the number of rows.
+    public StreamingResponseBody export(
+            Long toolId,
+            String rutUser,
+            String type,
+            LocalDate start,
+            LocalDate end,
+            String name,
+            String category,
+            boolean ascending
+    ) {
+        Specification<KardexEntity> spec = filters(toolId, rutUser, type, start, end, name, category);
+        return out -> {
+            TransactionTemplate readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+            readOnly.setReadOnly(true);
+            try {
+                readOnly.executeWithoutResult(s -> {
+                    try (Stream<KardexEntity> rows = streamRows(spec, ascending)) {
+                        Iterator<KardexEntity> it = rows.iterator();
+                        int n = 0;
+                        while (it.hasNext()) {
+                            out.write(objectMapper.writeValueAsBytes(it.next()));
+                            out.write(NEWLINE);
+                            if (++n % EXPORT_FETCH == 0) {
+                                out.flush();
+                                entityManager.clear();
+                            }
+                        }
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();  // client went away
+            }
+        };
+    }
+
+    // Specification -> criteria query with a fetch size (Spring Data's fluent stream() takes no hints)
+    private Stream<KardexEntity> streamRows(Specification<KardexEntity> spec, boolean ascending) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<KardexEntity> cq = cb.createQuery(KardexEntity.class);
+        Root<KardexEntity> root = cq.from(KardexEntity.class);
+
+        Predicate where = spec.toPredicate(root, cq, cb);
+        if (where != null) cq.where(where);
+        cq.orderBy(ascending
+                ? List.of(cb.asc(root.get("movementDate")), cb.asc(root.get("id")))
+                : List.of(cb.desc(root.get("movementDate")), cb.desc(root.get("id"))));
+
+        return entityManager.createQuery(cq)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, EXPORT_FETCH)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+    }
+
+    private Specification<KardexEntity> filters(
+            Long toolId, String rutUser, String type, LocalDate start, LocalDate end, String name, String category
+    ) {
+        return Specification.allOf(
+                KardexSpecifications.toolId(toolId),
+                KardexSpecifications.rutUser(rutUser),
+                KardexSpecifications.fromDate(start),
+                KardexSpecifications.toDate(end),
+                KardexSpecifications.typeContains(type),
+                KardexSpecifications.nameContains(name),
+                KardexSpecifications.categoryContains(category)
         );
     }
+
+    public record StreamSlice(List<KardexEntity> content, int size, boolean hasNext, String next) {}
+
+    private record Cursor(LocalDate movementDate, long id) {}
+
+    // base64url("yyyy-MM-dd:id")
+    private String encodeCursor(LocalDate movementDate, Long id) {
+        String raw = movementDate + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Cursor decodeCursor(String token) {
+        if (token == null || token.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf(':');
+            return new Cursor(LocalDate.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    // Single movement (POST /kardex/movements); the stock projection moves with it
+    @Transactional
+    public KardexEntity save(KardexEntity movement) {
+        KardexEntity saved = kardexRepository.save(movement);
+        stockLedgerService.apply(List.of(saved));
+        return saved;
+    }
+
+    // Bulk ingestion: one multi-row INSERT per chunk instead of one save per movement.
+    // Movements already stored under the same outbox id (sourceId) are skipped: the outbox delivers
+    // at least once.
+    @Transactional
+    public int saveBatch(List<KardexEntity> movements) {
+        List<Long> stored = new ArrayList<>(movements.size());  // source_id of each inserted row (null if none)
+        for (int from = 0; from < movements.size(); from += INSERT_CHUNK) {
+            List<KardexEntity> chunk = movements.subList(from, Math.min(from + INSERT_CHUNK, movements.size()));
+
+            StringBuilder sql = new StringBuilder(
+                    "insert into kardex (tool_id, tool_name_snapshot, tool_category_snapshot, rut_user, type, movement_date, stock, source_id) values ");
+            List<Object> args = new ArrayList<>(chunk.size() * 8);
+
+            for (int i = 0; i < chunk.size(); i++) {
+                KardexEntity k = chunk.get(i);
+                sql.append(i == 0 ? "(?,?,?,?,?,?,?,?)" : ",(?,?,?,?,?,?,?,?)");
+                args.add(k.getToolId());
+                args.add(k.getToolNameSnapshot());
+                args.add(k.getToolCategorySnapshot());
+                args.add(k.getRutUser());
+                args.add(k.getType());
+                args.add(Date.valueOf(k.getMovementDate()));
+                args.add(k.getStock());
+                args.add(k.getSourceId());
+            }
+            sql.append(" on conflict (source_id, movement_date) do nothing returning source_id");
+            stored.addAll(jdbcTemplate.queryForList(sql.toString(), Long.class, args.toArray()));
+        }
+
+        // only what was actually inserted moves the projection ("Ingreso" is a delta: a redelivered
+        // batch must not count twice)
+        Set<Long> storedIds = new HashSet<>(stored);
+        List<KardexEntity> fresh = new ArrayList<>(stored.size());
+        for (KardexEntity k : movements) {
+            if (k.getSourceId() == null || storedIds.contains(k.getSourceId())) fresh.add(k);
+        }
+        stockLedgerService.apply(fresh);
+        return stored.size();
+    }
 }
@@ -0,0 +1,251 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import com.example.kardexservice.entities.KardexStockDailyEntity;
+import com.example.kardexservice.repositories.KardexStockDailyRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// Per-(tool, day) closing stock, kept up to date as movements are ingested (kardex_stock_daily),
+// so "stock of tool X on date D" and stock-over-time series are PK lookups instead of scans of
+// the movement history. It also survives the archival of old kardex partitions.
+//
+// Movement semantics (as sent by inventory-service): "Ingreso" carries the quantity added, every
+// other type carries the bucket's balance after the change. Inventory emits a balance row for both
+// sides of a state change (origin and destination bucket) and when a hold takes or gives back units;
+// movements stored before that only covered the destination, so older origin balances lag behind.
+// Redelivered outbox batches never reach apply() (KardexService.saveBatch dedupes on source_id).
+@Service
+@RequiredArgsConstructor
+public class StockLedgerService {
+
+    private static final Set<String> DELTA_TYPES = Set.of("ingreso");
+
+    // advisory lock class for the per-tool locks (second key = tool id)
+    private static final int LEDGER_LOCK = 0x6c656467;
+
+    private static final int MAX_SERIES_DAYS = 1000;
+    private static final int WRITE_CHUNK = 1000;
+
+    private static final String UPSERT = """
+            insert into kardex_stock_daily (tool_id, stock_date, closing_stock, movements)
+            values (?, ?, ?, ?)
+            on conflict (tool_id, stock_date)
+            do update set closing_stock = excluded.closing_stock,
+                          movements = kardex_stock_daily.movements + excluded.movements
+            """;
+
+    private final KardexStockDailyRepository dailyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public record StockAt(Long toolId, LocalDate date, int stock, LocalDate asOf) {}
+
+    public record StockDay(LocalDate date, int stock, int movements) {}
+
+    // =========================
+    // Reads
+    // =========================
+    // asOf = day of the closing used (null: no movement on or before the date -> 0)
+    public StockAt stockAt(Long toolId, LocalDate date) {
+        if (toolId == null) throw new IllegalArgumentException("toolId is required");
+        LocalDate day = (date == null) ? LocalDate.now() : date;
+        return dailyRepository.findFirstByToolIdAndStockDateLessThanEqualOrderByStockDateDesc(toolId, day)
+                .map(r -> new StockAt(toolId, day, r.getClosingStock(), r.getStockDate()))
+                .orElse(new StockAt(toolId, day, 0, null));
+    }
+
+    // one entry per day in [start, end]; days without movements carry the previous closing
+    public List<StockDay> dailySeries(Long toolId, LocalDate start, LocalDate end) {
+        if (toolId == null) throw new IllegalArgumentException("toolId is required");
+        if (start == null || end == null) throw new IllegalArgumentException("start and end are required");
+        if (end.isBefore(start)) throw new IllegalArgumentException("end must be on or after start");
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_SERIES_DAYS)
+            throw new IllegalArgumentException("Range too large (max " + MAX_SERIES_DAYS + " days)");
+
+        int stock = dailyRepository.findFirstByToolIdAndStockDateLessThanEqualOrderByStockDateDesc(toolId, start.minusDays(1))
+                .map(KardexStockDailyEntity::getClosingStock)
+                .orElse(0);
+
+        Map<LocalDate, KardexStockDailyEntity> rows = new HashMap<>();
+        for (KardexStockDailyEntity r : dailyRepository.findByToolIdAndStockDateBetweenOrderByStockDateAsc(toolId, start, end)) {
+            rows.put(r.getStockDate(), r);
+        }
+
+        List<StockDay> out = new ArrayList<>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            KardexStockDailyEntity r = rows.get(d);
+            if (r != null) stock = r.getClosingStock();
+            out.add(new StockDay(d, stock, (r == null) ? 0 : r.getMovements()));
+        }
+        return out;
+    }
+
+    // =========================
+    // Ingestion
+    // =========================
+    // Called in the transaction that inserted the movements (in arrival order). In-order movements
+    // are folded onto the tool's last closing; a back-dated one rebuilds that tool from its date.
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(List<KardexEntity> movements) {
+        if (movements == null || movements.isEmpty()) return;
+
+        // TreeMap: locks always taken in the same order
+        Map<Long, List<KardexEntity>> byTool = new TreeMap<>();
+        for (KardexEntity m : movements) byTool.computeIfAbsent(m.getToolId(), k -> new ArrayList<>()).add(m);
+        for (Long toolId : byTool.keySet()) lockTool(toolId);
+
+        Map<Long, KardexStockDailyEntity> latest = latestClosings(byTool.keySet());
+        List<Object[]> rows = new ArrayList<>();
+
+        for (Map.Entry<Long, List<KardexEntity>> e : byTool.entrySet()) {
+            Long toolId = e.getKey();
+            KardexStockDailyEntity last = latest.get(toolId);
+
+            LocalDate earliest = null;
+            LocalDate previous = null;
+            boolean inOrder = true;
+            for (KardexEntity m : e.getValue()) {
+                LocalDate day = m.getMovementDate();
+                if (earliest == null || day.isBefore(earliest)) earliest = day;
+                if (previous != null && day.isBefore(previous)) inOrder = false;
+                previous = day;
+            }
+            if (!inOrder || (last != null && earliest.isBefore(last.getStockDate()))) {
+                rebuild(toolId, earliest);
+                continue;
+            }
+
+            int stock = (last == null) ? 0 : last.getClosingStock();
+            Map<LocalDate, int[]> days = new LinkedHashMap<>();
+            for (KardexEntity m : e.getValue()) {
+                stock = next(stock, m.getType(), m.getStock());
+                int[] d = days.computeIfAbsent(m.getMovementDate(), k -> new int[2]);
+                d[0] = stock;
+                d[1]++;
+            }
+            days.forEach((day, d) -> rows.add(new Object[]{toolId, Date.valueOf(day), d[0], d[1]}));
+        }
+
+        for (int from = 0; from < rows.size(); from += WRITE_CHUNK) {
+            jdbcTemplate.batchUpdate(UPSERT, rows.subList(from, Math.min(from + WRITE_CHUNK, rows.size())));
+        }
+    }
+
+    // Recomputes a tool's closings from a day on: opening = closing of the day before, then the
+    // tool's movements replayed in (movement_date, id) order.
+    private void rebuild(Long toolId, LocalDate from) {
+        List<Integer> before = jdbcTemplate.queryForList("""
+                select closing_stock from kardex_stock_daily
+                where tool_id = ? and stock_date < ?
+                order by stock_date desc limit 1
+                """, Integer.class, toolId, Date.valueOf(from));
+        jdbcTemplate.update("delete from kardex_stock_daily where tool_id = ? and stock_date >= ?", toolId, Date.valueOf(from));
+
+        int[] stock = {before.isEmpty() ? 0 : before.get(0)};
+        Map<LocalDate, int[]> days = new LinkedHashMap<>();
+        jdbcTemplate.query("""
+                select type, movement_date, stock from kardex
+                where tool_id = ? and movement_date >= ?
+                order by movement_date, id
+                """, rs -> {
+            stock[0] = next(stock[0], rs.getString(1), rs.getInt(3));
+            int[] d = days.computeIfAbsent(rs.getDate(2).toLocalDate(), k -> new int[2]);
+            d[0] = stock[0];
+            d[1]++;
+        }, toolId, Date.valueOf(from));
+
+        List<Object[]> rows = new ArrayList<>(days.size());
+        days.forEach((day, d) -> rows.add(new Object[]{toolId, Date.valueOf(day), d[0], d[1]}));
+        if (!rows.isEmpty()) jdbcTemplate.batchUpdate(UPSERT, rows);
+    }
+
+    // =========================
+    // Backfill
+    // =========================
+    // First start with existing history (after KardexPartitionManager): builds the whole projection
+    // in one pass over kardex ordered by (tool_id, movement_date, id). Ingestion waits on the table lock.
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(1)
+    public void backfillIfEmpty() {
+        if (dailyRepository.count() > 0) return;
+
+        transactionTemplate.executeWithoutResult(s -> {
+            jdbcTemplate.execute("lock table kardex in share mode");
+            if (dailyRepository.count() > 0) return;
+
+            JdbcTemplate scan = new JdbcTemplate(jdbcTemplate.getDataSource());
+            scan.setFetchSize(5000);
+
+            List<Object[]> rows = new ArrayList<>();
+            long[] tool = {Long.MIN_VALUE};
+            Object[][] open = {null};  // current (tool, day) row being folded
+            int[] stock = {0};
+
+            scan.query("select tool_id, type, movement_date, stock from kardex order by tool_id, movement_date, id", rs -> {
+                long toolId = rs.getLong(1);
+                Date day = rs.getDate(3);
+                if (toolId != tool[0]) {
+                    tool[0] = toolId;
+                    stock[0] = 0;
+                    open[0] = null;
+                }
+                stock[0] = next(stock[0], rs.getString(2), rs.getInt(4));
+
+                if (open[0] == null || !open[0][1].equals(day)) {
+                    open[0] = new Object[]{toolId, day, 0, 0};
+                    rows.add(open[0]);
+                    if (rows.size() >= WRITE_CHUNK + 1) {
+                        // everything but the row still being folded is final
+                        jdbcTemplate.batchUpdate(UPSERT, rows.subList(0, rows.size() - 1));
+                        rows.subList(0, rows.size() - 1).clear();
+                    }
+                }
+                open[0][2] = stock[0];
+                open[0][3] = (Integer) open[0][3] + 1;
+            });
+            if (!rows.isEmpty()) jdbcTemplate.batchUpdate(UPSERT, rows);
+        });
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    private int next(int stock, String type, Integer value) {
+        int v = (value == null) ? 0 : value;
+        boolean delta = type != null && DELTA_TYPES.contains(type.trim().toLowerCase());
+        return delta ? stock + v : v;
+    }
+
+    private void lockTool(Long toolId) {
+        int key = (int) (toolId ^ (toolId >>> 32));
+        jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?, ?)", Object.class, LEDGER_LOCK, key);
+    }
+
+    private Map<Long, KardexStockDailyEntity> latestClosings(Collection<Long> toolIds) {
+        String in = String.join(",", Collections.nCopies(toolIds.size(), "?"));
+        Map<Long, KardexStockDailyEntity> out = new HashMap<>();
+        jdbcTemplate.query("""
+                select distinct on (tool_id) tool_id, stock_date, closing_stock, movements
+                from kardex_stock_daily
+                where tool_id in (%s)
+                order by tool_id, stock_date desc
+                """.formatted(in), rs -> {
+            long id = rs.getLong(1);
+            out.put(id, new KardexStockDailyEntity(id, rs.getDate(2).toLocalDate(), rs.getInt(3), rs.getInt(4)));
+        }, toolIds.toArray());
+        return out;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.loanservice.clients;
+
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.github.resilience4j.retry.annotation.Retry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.*;
+
+// Cliente tipado de inventory-service: los records reflejan el contrato de ToolController
+// (ToolEntity, ToolService.ToolBatchRow, ToolService.StateTransition).
+// Resiliencia (config en resilience4j.*): circuit breaker + bulkhead "inventory" para todas las
+// llamadas; retry "inventory-idempotent" para la lectura y para las transiciones con opKey
+// (inventory aplica cada opKey una sola vez).
+@Component
+@RequiredArgsConstructor
+public class InventoryClient {
+
+    private final RestTemplate restTemplate;
+
+    // ServiceId en Eureka (usa @LoadBalanced en RestTemplate)
+    @Value("${services.inventory.base-url:http://inventory-service}")
+    private String inventoryBaseUrl;
+
+    @Value("${internal.api-key}")
+    private String internalApiKey;
+
+    // =========================
+    // Contrato (espejo de inventory-service)
+    // =========================
+    public record Tool(Long id,
+                       String name,
+                       String category,
+                       String initialState,
+                       int repositionValue,
+                       boolean available,
+                       int amount,
+                       long version) {}
+
+    // tool + ids de la misma name/category en el estado pedido
+    public record ToolBatchRow(Tool tool, List<Long> stateIds) {
+        public ToolBatchRow {
+            stateIds = (stateIds == null) ? List.of() : stateIds;
+        }
+    }
+
+    public record StateTransition(Long toolId, String toState, int qty) {
+        public static StateTransition of(Long toolId, String toState) {
+            return new StateTransition(toolId, toState, 1);
+        }
+    }
+
+    // =========================
+    // POST /tool/batch
+    // =========================
+    // Una llamada por préstamo, indexada por toolId.
+    @Retry(name = "inventory-idempotent", fallbackMethod = "batchUnavailable")
+    @CircuitBreaker(name = "inventory")
+    @Bulkhead(name = "inventory")
+    public Map<Long, ToolBatchRow> fetchToolBatch(Collection<Long> toolIds, String state) {
+        String url = UriComponentsBuilder
+                    .fromUriString(inventoryBaseUrl)
+                    .path("/tool/batch")
+                .queryParam("state", state)
+                .build()
+                .toUriString();
+
+        ToolBatchRow[] rows = restTemplate.postForObject(url, new ArrayList<>(toolIds), ToolBatchRow[].class);
+        if (rows == null) return Map.of();
+
+        Map<Long, ToolBatchRow> out = new HashMap<>(rows.length * 2);
+        for (ToolBatchRow row : rows) {
+            if (row != null && row.tool() != null && row.tool().id() != null) out.put(row.tool().id(), row);
+        }
+        return out;
+    }
+
+    // 4xx: inventory rechazó la consulta -> vacío ("Tool not found" en el llamador).
+    // Caída, timeout, breaker abierto o bulkhead lleno -> falla rápido.
+    private Map<Long, ToolBatchRow> batchUnavailable(Collection<Long> toolIds, String state, Throwable ex) {
+        if (ex instanceof HttpClientErrorException) return Map.of();
+        throw new IllegalStateException("Inventory-service no disponible", ex);
+    }
+
+    // =========================
+    // POST /tool/transitions
+    // =========================
+    // Todos los movimientos del préstamo en una transacción de inventory.
+    // opKey != null: inventory lo aplica una sola vez y se puede deshacer con revertToolStates.
+    // Sin opKey no hay retry (un reintento podría mover el stock dos veces).
+    @CircuitBreaker(name = "inventory", fallbackMethod = "transitionsFailed")
+    @Bulkhead(name = "inventory")
+    public void moveToolStates(List<StateTransition> moves, String rutUser) {
+        postTransitions(moves, rutUser, null);
+    }
+
+    @Retry(name = "inventory-idempotent", fallbackMethod = "keyedTransitionsFailed")
+    @CircuitBreaker(name = "inventory")
+    @Bulkhead(name = "inventory")
+    public void moveToolStates(List<StateTransition> moves, String rutUser, String opKey) {
+        postTransitions(moves, rutUser, opKey);
+    }
+
+    private void postTransitions(List<StateTransition> moves, String rutUser, String opKey) {
+        if (moves.isEmpty()) return;
+        UriComponentsBuilder url = UriComponentsBuilder
+                .fromUriString(inventoryBaseUrl)
+                .path("/tool/transitions")
+                .queryParam("rutUser", rutUser);
+        if (opKey != null) url.queryParam("opKey", opKey);
+
+        restTemplate.postForEntity(url.build().toUriString(), moves, Void.class);
+    }
+
+    private void transitionsFailed(List<StateTransition> moves, String rutUser, Throwable ex) {
+        if (ex instanceof HttpClientErrorException http) {
+            throw new IllegalArgumentException(http.getResponseBodyAsString());
+        }
+        throw new IllegalStateException("Inventory-service no respondió al cambiar estado (" + moves.size() + " items)", ex);
+    }
+
+    private void keyedTransitionsFailed(List<StateTransition> moves, String rutUser, String opKey, Throwable ex) {
+        transitionsFailed(moves, rutUser, ex);
+    }
+
+    // =========================
+    // POST /tool/holds/{holdId}/commit
+    // =========================
+    // Checkout con hold: las unidades ya están apartadas, el commit las pasa a "Prestada".
+    // Mismo contrato de opKey que las transiciones (una vez, revertible).
+    @Retry(name = "inventory-idempotent", fallbackMethod = "commitHoldFailed")
+    @CircuitBreaker(name = "inventory")
+    @Bulkhead(name = "inventory")
+    public void commitHold(String holdId, Collection<Long> toolIds, String rutUser, String opKey) {
+        String url = UriComponentsBuilder
+                .fromUriString(inventoryBaseUrl)
+                .path("/tool/holds/{holdId}/commit")
+                .queryParam("rutUser", rutUser)
+                .queryParam("toState", "Prestada")
+                .queryParam("opKey", opKey)
+                .buildAndExpand(holdId)
+                .toUriString();
+
+        restTemplate.postForEntity(url, new ArrayList<>(toolIds), Void.class);
+    }
+
+    private void commitHoldFailed(String holdId, Collection<Long> toolIds, String rutUser, String opKey, Throwable ex) {
+        if (ex instanceof HttpClientErrorException http) {
+            throw new IllegalArgumentException(http.getResponseBodyAsString());
+        }
+        throw new IllegalStateException("Inventory-service no respondió al confirmar el hold " + holdId, ex);
+    }
+
+    // =========================
+    // POST /tool/transitions/{opKey}/revert
+    // =========================
+    // Compensación del saga: no-op si el opKey nunca se aplicó o ya se revirtió.
+    // X-Internal-Key porque la recuperación corre sin JWT de usuario.
+    @Retry(name = "inventory-idempotent")
+    @CircuitBreaker(name = "inventory")
+    @Bulkhead(name = "inventory")
+    public void revertToolStates(String opKey, String rutUser) {
+        String url = UriComponentsBuilder
+                .fromUriString(inventoryBaseUrl)
+                .path("/tool/transitions/{opKey}/revert")
+                .queryParam("rutUser", rutUser)
+                .buildAndExpand(opKey)
+                .toUriString();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Internal-Key", internalApiKey);
+        restTemplate.postForEntity(url, new HttpEntity<>(null, headers), Void.class);
+    }
+}
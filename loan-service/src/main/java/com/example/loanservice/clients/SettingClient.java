@@ -0,0 +1,47 @@
+package com.example.loanservice.clients;
+
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+
+// GET /settings/snapshot de setting-service (circuit breaker + bulkhead "setting").
+// Devuelve null si no está disponible: SettingsCache sigue con el último snapshot conocido.
+@Component
+@RequiredArgsConstructor
+public class SettingClient {
+
+    private final RestTemplate restTemplate;
+
+    @Value("${services.setting.base-url:http://setting-service}")
+    private String settingBaseUrl;
+
+    @Value("${internal.api-key}")
+    private String internalApiKey;
+
+    // conditional GET: etag != null -> If-None-Match (304 si no cambió)
+    @SuppressWarnings("rawtypes")
+    @CircuitBreaker(name = "setting", fallbackMethod = "snapshotUnavailable")
+    @Bulkhead(name = "setting")
+    public ResponseEntity<Map> fetchSnapshot(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Internal-Key", internalApiKey);
+        if (etag != null) headers.setIfNoneMatch(etag);
+
+        return restTemplate.exchange(
+                settingBaseUrl + "/settings/snapshot", HttpMethod.GET, new HttpEntity<>(headers), Map.class);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private ResponseEntity<Map> snapshotUnavailable(String etag, Throwable ex) {
+        return null;
+    }
+}
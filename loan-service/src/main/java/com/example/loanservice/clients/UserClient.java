@@ -0,0 +1,43 @@
+package com.example.loanservice.clients;
+
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+// Llamadas opcionales a user-service (features.check-user-active).
+// Fail-open como antes, pero con circuit breaker + bulkhead "user" para no bloquear hilos si está caído.
+@Component
+@RequiredArgsConstructor
+public class UserClient {
+
+    private final RestTemplate restTemplate;
+
+    @Value("${services.user.base-url:http://user-service}")
+    private String userBaseUrl;
+
+    // null = desconocido (no bloquea el préstamo)
+    @CircuitBreaker(name = "user", fallbackMethod = "activeUnknown")
+    @Bulkhead(name = "user")
+    public Boolean fetchUserActive(String rutUser) {
+        String url = userBaseUrl + "/user/" + rutUser + "/active";
+        return restTemplate.getForObject(url, Boolean.class);
+    }
+
+    @CircuitBreaker(name = "user", fallbackMethod = "recomputeSkipped")
+    @Bulkhead(name = "user")
+    public void recomputeUserActive(String rutUser) {
+        String url = userBaseUrl + "/user/" + rutUser + "/recompute-active";
+        restTemplate.postForEntity(url, null, Void.class);
+    }
+
+    private Boolean activeUnknown(String rutUser, Throwable ex) {
+        return null;
+    }
+
+    private void recomputeSkipped(String rutUser, Throwable ex) {
+        // best effort
+    }
+}
@@ -1,30 +1,36 @@
 package com.example.loanservice.controllers;
 
+import com.example.loanservice.entities.LoanUserSummaryEntity;
 import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.services.LoanUserSummaryService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
 
-import java.time.LocalDate;
-
 @RestController
 @RequiredArgsConstructor
-@RequestMapping("/loan/exists")
+@RequestMapping("/loan")
 public class LoanChecksController {
 
     private final LoanRepository loanRepository;
+    private final LoanUserSummaryService summaryService;
+
+    // active count + overdue flag + unpaid totals in one PK read
+    @GetMapping("/summary/{rut}")
+    public LoanUserSummaryEntity summary(@PathVariable String rut) {
+        return summaryService.get(rut);
+    }
 
-    @GetMapping("/overdue")
+    @GetMapping("/exists/overdue")
     public boolean existsOverdue(@RequestParam("rut") String rut) {
-        LocalDate today = LocalDate.now();
-        return loanRepository.existsByRutUserAndReturnDateBeforeAndLateReturnDateIsNull(rut, today);
+        return loanRepository.existsByRutUserAndOverdueTrueAndLateReturnDateIsNull(rut);
     }
 
-    @GetMapping("/unpaid-latefine")
+    @GetMapping("/exists/unpaid-latefine")
     public boolean existsUnpaidLateFine(@RequestParam("rut") String rut) {
         return loanRepository.existsByRutUserAndLateFineGreaterThanAndLateFinePaidIsFalse(rut, 0);
     }
 
-    @GetMapping("/unpaid-damage")
+    @GetMapping("/exists/unpaid-damage")
     public boolean existsUnpaidDamage(@RequestParam("rut") String rut) {
         return loanRepository.existsByRutUserAndDamagePenaltyGreaterThanAndDamagePenaltyPaidIsFalse(rut, 0);
     }
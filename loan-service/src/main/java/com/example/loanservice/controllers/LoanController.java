@@ -2,7 +2,10 @@ package com.example.loanservice.controllers;
 
 import com.example.loanservice.entities.LoanEntity;
 import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.services.LoanExportService;
+import com.example.loanservice.services.LoanSagaOrchestrator;
 import com.example.loanservice.services.LoanService;
+import com.example.loanservice.services.LoanStatsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Sort;
@@ -11,7 +14,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
-import com.example.loanservice.repositories.LoanItemRepository;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.data.domain.PageRequest;
 
 import java.time.LocalDate;
@@ -27,7 +30,11 @@ public class LoanController {
     @Autowired
     private LoanService loanService;
     @Autowired
-    private LoanItemRepository loanItemRepository;
+    private LoanSagaOrchestrator loanSagaOrchestrator;
+    @Autowired
+    private LoanExportService loanExportService;
+    @Autowired
+    private LoanStatsService loanStatsService;
     @Autowired
     private LoanRepository loanRepository;
 
@@ -37,13 +44,20 @@ public class LoanController {
             @RequestParam String rutUser,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate reservationDate,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate returnDate,
-            @RequestBody List<LoanService.Item> items
+            @RequestParam(required = false) String holdId,
+            @RequestBody List<LoanService.Item> items,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey
     ) {
         try {
-            LoanEntity loan = loanService.createLoan(rutUser, reservationDate, returnDate, items);
+            LoanEntity loan = loanSagaOrchestrator.createLoan(idempotencyKey, rutUser, reservationDate, returnDate, items, holdId);
             return ResponseEntity.ok(loan);
         } catch (IllegalArgumentException ex) {
             return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (LoanSagaOrchestrator.SagaConflictException ex) {
+            return ResponseEntity.status(409).body(ex.getMessage());
+        } catch (IllegalStateException ex) {
+            // dependencia caída / breaker abierto: falla rápido
+            return ResponseEntity.status(503).body(ex.getMessage());
         }
     }
 
@@ -94,6 +108,8 @@ public class LoanController {
 
         } catch (IllegalArgumentException ex) {
             return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(503).body(ex.getMessage());
         } catch (Exception ex) {
             ex.printStackTrace();
             return ResponseEntity.status(500).body(ex.getMessage());
@@ -175,6 +191,25 @@ public class LoanController {
         return ResponseEntity.ok(loanService.listActiveLoans(rutUser));
     }
 
+    // Igual que /active pero en NDJSON (un préstamo por línea), leído con cursor: para exports grandes
+    @PreAuthorize("hasAnyRole('USER','ADMIN')")
+    @GetMapping("/active/stream")
+    public ResponseEntity<StreamingResponseBody> streamActive(
+            @RequestParam(required = false) String rutUser,
+            org.springframework.security.core.Authentication auth
+    ) {
+        boolean isAdmin = auth.getAuthorities().stream()
+                .map(org.springframework.security.core.GrantedAuthority::getAuthority)
+                .anyMatch(a -> a != null && a.equalsIgnoreCase("ROLE_ADMIN"));
+
+        if ((rutUser == null || rutUser.isBlank()) && !isAdmin) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(LoanExportService.NDJSON))
+                .body(loanExportService.activeLoans(rutUser, null, null));
+    }
+
 
     @PreAuthorize("hasAnyRole('USER','ADMIN')")
     @GetMapping("/top")
@@ -185,17 +220,14 @@ public class LoanController {
     ) {
         int size = (limit == null || limit <= 0) ? 10 : limit;
 
-        boolean hasStart = (start != null);
-        boolean hasEnd   = (end   != null);
-
-        List<Object[]> rows = loanItemRepository.topByToolName(
-                hasStart, start, hasEnd, end, PageRequest.of(0, size)
-        );
+        // daily rollup (loan_daily_stats): one row per tool and day instead of every loan line
+        List<Object[]> rows = loanStatsService.topByToolName(start, end, size);
 
         List<Map<String, Object>> out = new java.util.ArrayList<>();
         for (Object[] r : rows) {
             Map<String, Object> m = new java.util.LinkedHashMap<>();
-            m.put("tool",  (String) r[0]);
+            String tool = (String) r[0];
+            m.put("tool",  tool.isEmpty() ? null : tool);
             m.put("times", ((Number) r[1]).longValue());
             out.add(m);
         }
@@ -0,0 +1,166 @@
+package com.example.loanservice.controllers;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.repositories.LoanItemRepository;
+import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.services.LoanAnalyticsService;
+import com.example.loanservice.services.LoanChangeFeed;
+import com.example.loanservice.services.LoanExportService;
+import com.example.loanservice.services.LoanStatsService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Aggregates for report-service (GROUP BY in the DB, only the result rows travel)
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/loan/reports")
+public class LoanReportController {
+
+    private final LoanRepository loanRepository;
+    private final LoanItemRepository loanItemRepository;
+    private final LoanExportService loanExportService;
+    private final LoanChangeFeed loanChangeFeed;
+    private final LoanStatsService loanStatsService;
+    private final LoanAnalyticsService loanAnalyticsService;
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/active")
+    public ResponseEntity<List<LoanEntity>> activeInRange(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+    ) {
+        return ResponseEntity.ok(loanRepository.findActiveInRange(start != null, start, end != null, end));
+    }
+
+    // Same rows as /active as NDJSON, streamed from a DB cursor (ordered by id)
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/active/stream")
+    public ResponseEntity<StreamingResponseBody> streamActiveInRange(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+    ) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(LoanExportService.NDJSON))
+                .body(loanExportService.activeLoans(null, start, end));
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/overdue-by-rut")
+    public ResponseEntity<List<Map<String, Object>>> overdueByRut(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+    ) {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Object[] r : loanRepository.overdueCountByRut(start != null, start, end != null, end)) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("rutUser", (String) r[0]);
+            m.put("overdueLoans", ((Number) r[1]).longValue());
+            out.add(m);
+        }
+        return ResponseEntity.ok(out);
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/top-tool-ids")
+    public ResponseEntity<List<Map<String, Object>>> topToolIds(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(defaultValue = "10") int limit
+    ) {
+        List<Object[]> rows = loanItemRepository.topByToolId(
+                start != null, start, end != null, end, PageRequest.of(0, Math.max(1, limit))
+        );
+
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Object[] r : rows) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("toolId", ((Number) r[0]).longValue());
+            m.put("times", ((Number) r[1]).longValue());
+            out.add(m);
+        }
+        return ResponseEntity.ok(out);
+    }
+
+    // Daily rollup (loan_daily_stats): loans/revenue by reservation day, fines by return day
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/stats/daily")
+    public ResponseEntity<?> dailyStats(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(required = false) String tool
+    ) {
+        try {
+            return ResponseEntity.ok(loanStatsService.daily(start, end, tool));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/stats/tools")
+    public ResponseEntity<?> toolStats(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(defaultValue = "10") int limit
+    ) {
+        try {
+            return ResponseEntity.ok(loanStatsService.byTool(start, end, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Backfill: recomputes the whole rollup from loan/loan_item
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @PostMapping("/stats/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildStats() {
+        return ResponseEntity.ok(Map.of("rows", loanStatsService.rebuild()));
+    }
+
+    // Monthly rent / fines / penalties, charged and paid ("yyyy-MM"; closed months come from a cache)
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/revenue/monthly")
+    public ResponseEntity<?> monthlyRevenue(
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to
+    ) {
+        try {
+            return ResponseEntity.ok(loanAnalyticsService.monthly(from, to));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Change cursor for incremental materializations (report-service): head = where to start after a
+    // full read, changes = loans changed after a cursor (current state), oldest first
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/changes/head")
+    public ResponseEntity<Map<String, Object>> changesHead() {
+        return ResponseEntity.ok(Map.of("cursor", loanChangeFeed.head()));
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/changes")
+    public ResponseEntity<?> changes(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "500") int limit
+    ) {
+        try {
+            return ResponseEntity.ok(loanChangeFeed.changes(after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
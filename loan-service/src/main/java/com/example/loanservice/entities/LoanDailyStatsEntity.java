@@ -0,0 +1,54 @@
+package com.example.loanservice.entities;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+// Daily rollup per tool name (toolNameSnapshot), maintained by LoanStatsService in the same
+// transaction as the loan change. Rankings and revenue dashboards sum these rows instead of
+// scanning loan/loan_item (at most one row per tool and day).
+// - loans / revenue: on the loan's reservationDate (one loan line = one loan of that tool)
+// - lateFines / damagePenalties: on the day the loan was returned (lateReturnDate)
+// Money of a loan is split evenly across its lines (remainder to the first ones), so summing all
+// tools of a day gives the loans' exact totals.
+@Entity
+@Table(name = "loan_daily_stats")
+@IdClass(LoanDailyStatsEntity.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanDailyStatsEntity {
+
+    @Id
+    @Column(name = "stat_date", nullable = false)
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate statDate;
+
+    // "" = lines without name snapshot
+    @Id
+    @Column(name = "tool_name", nullable = false)
+    private String toolName;
+
+    @Column(nullable = false)
+    private long loans;
+
+    @Column(nullable = false)
+    private long revenue;
+
+    @Column(name = "late_fines", nullable = false)
+    private long lateFines;
+
+    @Column(name = "damage_penalties", nullable = false)
+    private long damagePenalties;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private LocalDate statDate;
+        private String toolName;
+    }
+}
@@ -31,6 +31,10 @@ public class LoanEntity {
     private LocalDate returnDate;
     private LocalDate lateReturnDate;
 
+    // set once a day by OverdueSweeper (returnDate < today and not returned)
+    @Column(columnDefinition = "boolean default false")
+    private boolean overdue = false;
+
     // first amount of rent
     private int total = 0;
 
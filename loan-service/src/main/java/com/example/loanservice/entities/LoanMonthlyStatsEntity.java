@@ -0,0 +1,47 @@
+package com.example.loanservice.entities;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Cached monthly revenue/fines of a closed month (LoanAnalyticsService). Only past months are
+// stored; a loan write that touches a month deletes its row in the same transaction.
+// - loans / rent: loans reserved in the month
+// - fines / penalties (charged and paid): loans returned in the month
+@Entity
+@Table(name = "loan_monthly_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanMonthlyStatsEntity {
+
+    // first day of the month
+    @Id
+    @Column(name = "month_start", nullable = false)
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate monthStart;
+
+    @Column(nullable = false)
+    private long loans;
+
+    @Column(nullable = false)
+    private long rent;
+
+    @Column(name = "late_fines", nullable = false)
+    private long lateFines;
+
+    @Column(name = "late_fines_paid", nullable = false)
+    private long lateFinesPaid;
+
+    @Column(name = "damage_penalties", nullable = false)
+    private long damagePenalties;
+
+    @Column(name = "damage_penalties_paid", nullable = false)
+    private long damagePenaltiesPaid;
+
+    @Column(name = "computed_at", nullable = false)
+    private LocalDateTime computedAt;
+}
@@ -0,0 +1,51 @@
+package com.example.loanservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Loan creation saga, one row per Idempotency-Key.
+// STARTED -> RESERVED (inventory batch applied) -> COMPLETED (loan persisted)
+// any failure -> COMPENSATING (inventory revert pending) -> ABORTED (a retry with the same key starts over)
+@Entity
+@Table(name = "loan_saga", uniqueConstraints = @UniqueConstraint(columnNames = "idempotency_key"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanSagaEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "idempotency_key", nullable = false, length = 100)
+    private String idempotencyKey;
+
+    // SHA-256 of the request (same key + different body is rejected)
+    @Column(length = 64)
+    private String fingerprint;
+
+    @Column(length = 20)
+    private String rutUser;
+
+    @Column(length = 20)
+    private String status;
+
+    // bumped on every restart after ABORTED
+    private int attempt;
+
+    // random per attempt: the inventory opKey, so it cannot be guessed (and reverted) by others
+    @Column(length = 36)
+    private String opToken;
+
+    private Long loanId;
+
+    @Column(length = 500)
+    private String lastError;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,35 @@
+package com.example.loanservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// One row per client, maintained by create/return/payFines (PK reads for limits and activity checks)
+@Entity
+@Table(name = "loan_user_summary")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanUserSummaryEntity {
+
+    @Id
+    @Column(name = "rut_user", length = 20)
+    private String rutUser;
+
+    private int activeLoans = 0;
+
+    // earliest returnDate among active loans (overdue when it is before today)
+    private LocalDate earliestReturnDate;
+    private boolean overdue = false;
+
+    // sums of unpaid amounts
+    private int unpaidLateFines = 0;
+    private int unpaidDamagePenalties = 0;
+
+    public LoanUserSummaryEntity(String rutUser) {
+        this.rutUser = rutUser;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.LoanDailyStatsEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Range reads over the rollup: PK (stat_date, tool_name) range scans, one row per tool and day
+public interface LoanDailyStatsRepository extends JpaRepository<LoanDailyStatsEntity, LoanDailyStatsEntity.Key> {
+
+    // Same result as LoanItemRepository.topByToolName (rows with only fines of the range are left out)
+    @Query("""
+        select s.toolName as tool, sum(s.loans) as times
+        from LoanDailyStatsEntity s
+        where (:hasStart = false or s.statDate >= :start)
+          and (:hasEnd = false or s.statDate <= :end)
+        group by s.toolName
+        having sum(s.loans) > 0
+        order by times desc
+    """)
+    List<Object[]> topByToolName(
+            @Param("hasStart") boolean hasStart,
+            @Param("start") LocalDate start,
+            @Param("hasEnd") boolean hasEnd,
+            @Param("end") LocalDate end,
+            Pageable pageable
+    );
+
+    // (day, loans, revenue, lateFines, damagePenalties), all tools or one
+    @Query("""
+        select s.statDate, sum(s.loans), sum(s.revenue), sum(s.lateFines), sum(s.damagePenalties)
+        from LoanDailyStatsEntity s
+        where s.statDate between :start and :end
+          and (:hasTool = false or s.toolName = :tool)
+        group by s.statDate
+        order by s.statDate
+    """)
+    List<Object[]> dailyTotals(
+            @Param("start") LocalDate start,
+            @Param("end") LocalDate end,
+            @Param("hasTool") boolean hasTool,
+            @Param("tool") String tool
+    );
+
+    // (tool, loans, revenue, lateFines, damagePenalties) over the range, by revenue
+    @Query("""
+        select s.toolName, sum(s.loans), sum(s.revenue), sum(s.lateFines), sum(s.damagePenalties)
+        from LoanDailyStatsEntity s
+        where s.statDate between :start and :end
+        group by s.toolName
+        order by sum(s.revenue) desc, s.toolName
+    """)
+    List<Object[]> totalsByTool(
+            @Param("start") LocalDate start,
+            @Param("end") LocalDate end,
+            Pageable pageable
+    );
+}
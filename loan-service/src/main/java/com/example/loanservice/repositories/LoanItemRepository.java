@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 public interface LoanItemRepository extends JpaRepository<LoanItemEntity, Long> {
@@ -28,4 +29,31 @@ public interface LoanItemRepository extends JpaRepository<LoanItemEntity, Long>
             @Param("end") LocalDate end,
             Pageable pageable
     );
-}
\ No newline at end of file
+
+    //Ranking by toolId (report-service enriches with inventory)
+    @Query("""
+        select li.toolId as toolId, count(li) as times
+        from LoanItemEntity li
+        join li.loan l
+        where (:hasStart = false or l.reservationDate >= :start)
+          and (:hasEnd = false or l.reservationDate <= :end)
+        group by li.toolId
+        order by times desc
+    """)
+    List<Object[]> topByToolId(
+            @Param("hasStart") boolean hasStart,
+            @Param("start") LocalDate start,
+            @Param("hasEnd") boolean hasEnd,
+            @Param("end") LocalDate end,
+            Pageable pageable
+    );
+
+    // Exports: items of a chunk of loans as (loanId, id, toolId, toolNameSnapshot)
+    @Query("""
+        select li.loan.id, li.id, li.toolId, li.toolNameSnapshot
+        from LoanItemEntity li
+        where li.loan.id in :loanIds
+        order by li.loan.id, li.id
+    """)
+    List<Object[]> findRowsByLoanIds(@Param("loanIds") Collection<Long> loanIds);
+}
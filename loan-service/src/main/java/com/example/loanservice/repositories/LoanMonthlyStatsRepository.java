@@ -0,0 +1,12 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.LoanMonthlyStatsEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface LoanMonthlyStatsRepository extends JpaRepository<LoanMonthlyStatsEntity, LocalDate> {
+
+    List<LoanMonthlyStatsEntity> findByMonthStartBetween(LocalDate start, LocalDate end);
+}
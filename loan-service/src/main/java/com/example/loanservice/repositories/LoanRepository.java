@@ -1,17 +1,22 @@
 package com.example.loanservice.repositories;
 
 import com.example.loanservice.entities.LoanEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface LoanRepository extends JpaRepository<LoanEntity, Long> {
 
@@ -28,16 +33,44 @@ public interface LoanRepository extends JpaRepository<LoanEntity, Long> {
     Page<LoanEntity> findPageByRutUser(String rutUser, Pageable pageable);
 
     @EntityGraph(attributePaths = {"items"})
-    Page<LoanEntity> findByLateReturnDateIsNullAndReturnDateBefore(LocalDate today, Pageable pageable);
+    Page<LoanEntity> findByOverdueTrueAndLateReturnDateIsNull(Pageable pageable);
 
     @EntityGraph(attributePaths = {"items"})
-    Page<LoanEntity> findByRutUserAndLateReturnDateIsNullAndReturnDateBefore(
-            String rutUser, LocalDate today, Pageable pageable);
+    Page<LoanEntity> findByRutUserAndOverdueTrueAndLateReturnDateIsNull(String rutUser, Pageable pageable);
 
-    boolean existsByRutUserAndReturnDateBeforeAndLateReturnDateIsNull(String rutUser, LocalDate today);
+    boolean existsByRutUserAndOverdueTrueAndLateReturnDateIsNull(String rutUser);
     boolean existsByRutUserAndLateFineGreaterThanAndLateFinePaidIsFalse(String rutUser, int min);
     boolean existsByRutUserAndDamagePenaltyGreaterThanAndDamagePenaltyPaidIsFalse(String rutUser, int min);
 
+    // OverdueSweeper: (id, rutUser) of active loans past due and not flagged yet, id > afterId
+    @Query("""
+      select l.id, l.rutUser
+      from LoanEntity l
+      where l.lateReturnDate is null
+        and l.overdue = false
+        and l.returnDate < :today
+        and l.id > :afterId
+      order by l.id
+    """)
+    List<Object[]> findOverdueCandidates(
+            @Param("today") LocalDate today,
+            @Param("afterId") long afterId,
+            Pageable pageable
+    );
+
+    @Modifying
+    @Query("update LoanEntity l set l.overdue = true where l.id in :ids")
+    int markOverdue(@Param("ids") Collection<Long> ids);
+
+    @Query("select min(l.returnDate) from LoanEntity l where l.rutUser = :rut and l.lateReturnDate is null")
+    LocalDate minActiveReturnDate(@Param("rut") String rutUser);
+
+    @Query("select coalesce(sum(l.lateFine), 0) from LoanEntity l where l.rutUser = :rut and l.lateFine > 0 and l.lateFinePaid = false")
+    long sumUnpaidLateFines(@Param("rut") String rutUser);
+
+    @Query("select coalesce(sum(l.damagePenalty), 0) from LoanEntity l where l.rutUser = :rut and l.damagePenalty > 0 and l.damagePenaltyPaid = false")
+    long sumUnpaidDamagePenalties(@Param("rut") String rutUser);
+
     @Query("""
       select case when count(li)>0 then true else false end
       from LoanEntity l
@@ -80,6 +113,64 @@ public interface LoanRepository extends JpaRepository<LoanEntity, Long> {
 
 
 
+    // Reports: active loans filtered by reservationDate in the DB
+    @EntityGraph(attributePaths = {"items"})
+    @Query("""
+      select l
+      from LoanEntity l
+      where l.lateReturnDate is null
+        and (:hasStart = false or l.reservationDate >= :start)
+        and (:hasEnd   = false or l.reservationDate <= :end)
+      order by l.reservationDate desc
+    """)
+    List<LoanEntity> findActiveInRange(
+            @Param("hasStart") boolean hasStart,
+            @Param("start") LocalDate start,
+            @Param("hasEnd") boolean hasEnd,
+            @Param("end") LocalDate end
+    );
+
+    // Exports (NDJSON): active loans through a server-side cursor, without items (LoanExportService
+    // loads them per chunk). Must be consumed inside a transaction and closed.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("""
+      select l
+      from LoanEntity l
+      where l.lateReturnDate is null
+        and (:rut is null or l.rutUser = :rut)
+        and (:hasStart = false or l.reservationDate >= :start)
+        and (:hasEnd   = false or l.reservationDate <= :end)
+      order by l.id
+    """)
+    Stream<LoanEntity> streamActive(
+            @Param("rut") String rutUser,
+            @Param("hasStart") boolean hasStart,
+            @Param("start") LocalDate start,
+            @Param("hasEnd") boolean hasEnd,
+            @Param("end") LocalDate end
+    );
+
+    // Reports: overdue active loans per client
+    @Query("""
+      select l.rutUser as rutUser, count(l) as overdueLoans
+      from LoanEntity l
+      where l.overdue = true
+        and l.lateReturnDate is null
+        and (:hasStart = false or l.reservationDate >= :start)
+        and (:hasEnd   = false or l.reservationDate <= :end)
+      group by l.rutUser
+      order by overdueLoans desc
+    """)
+    List<Object[]> overdueCountByRut(
+            @Param("hasStart") boolean hasStart,
+            @Param("start") LocalDate start,
+            @Param("hasEnd") boolean hasEnd,
+            @Param("end") LocalDate end
+    );
+
     @Override
     @EntityGraph(attributePaths = {"items"})
     Optional<LoanEntity> findById(Long id);
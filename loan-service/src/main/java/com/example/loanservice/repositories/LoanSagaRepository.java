@@ -0,0 +1,72 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.LoanSagaEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface LoanSagaRepository extends JpaRepository<LoanSagaEntity, Long> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from LoanSagaEntity s where s.idempotencyKey = :key")
+    Optional<LoanSagaEntity> findForUpdateByKey(@Param("key") String idempotencyKey);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from LoanSagaEntity s where s.id = :id")
+    Optional<LoanSagaEntity> findForUpdate(@Param("id") Long id);
+
+    // compare-and-set on status: 0 rows = someone else (request or recovery) moved the saga first
+    @Modifying
+    @Query("""
+      update LoanSagaEntity s
+      set s.status = :to, s.updatedAt = :now
+      where s.id = :id and s.status in :from
+    """)
+    int transition(@Param("id") Long id,
+                   @Param("from") Collection<String> from,
+                   @Param("to") String to,
+                   @Param("now") LocalDateTime now);
+
+    // recovery claim: same as transition, only if untouched since the cutoff
+    @Modifying
+    @Query("""
+      update LoanSagaEntity s
+      set s.status = :to, s.updatedAt = :now
+      where s.id = :id and s.status in :from and s.updatedAt < :cutoff
+    """)
+    int claimStale(@Param("id") Long id,
+                   @Param("from") Collection<String> from,
+                   @Param("to") String to,
+                   @Param("cutoff") LocalDateTime cutoff,
+                   @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("""
+      update LoanSagaEntity s
+      set s.status = 'ABORTED', s.lastError = :error, s.updatedAt = :now
+      where s.id = :id and s.status in :from
+    """)
+    int markAborted(@Param("id") Long id,
+                    @Param("from") Collection<String> from,
+                    @Param("error") String error,
+                    @Param("now") LocalDateTime now);
+
+    @Query("""
+      select s
+      from LoanSagaEntity s
+      where s.status in :statuses and s.updatedAt < :cutoff
+      order by s.updatedAt
+    """)
+    List<LoanSagaEntity> findStale(@Param("statuses") Collection<String> statuses,
+                                   @Param("cutoff") LocalDateTime cutoff,
+                                   Pageable pageable);
+}
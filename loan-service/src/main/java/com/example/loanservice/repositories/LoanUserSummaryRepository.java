@@ -0,0 +1,33 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.LoanUserSummaryEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Optional;
+
+public interface LoanUserSummaryRepository extends JpaRepository<LoanUserSummaryEntity, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from LoanUserSummaryEntity s where s.rutUser = :rut")
+    Optional<LoanUserSummaryEntity> findForUpdate(@Param("rut") String rutUser);
+
+    // 1 = inserted (empty row, the caller fills it), 0 = already there (or inserted concurrently:
+    // waits for that transaction)
+    @Modifying
+    @Query(value = """
+        insert into loan_user_summary (rut_user, active_loans, overdue, unpaid_late_fines, unpaid_damage_penalties)
+        values (:rut, 0, false, 0, 0)
+        on conflict (rut_user) do nothing
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("rut") String rutUser);
+
+    @Modifying
+    @Query("update LoanUserSummaryEntity s set s.overdue = true where s.rutUser in :ruts")
+    int markOverdue(@Param("ruts") Collection<String> ruts);
+}
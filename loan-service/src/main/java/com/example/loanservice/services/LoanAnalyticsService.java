@@ -0,0 +1,195 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanMonthlyStatsEntity;
+import com.example.loanservice.repositories.LoanMonthlyStatsRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// Monthly rent / late fines / damage penalties (charged, paid, unpaid), computed with one aggregate
+// query over loan: each loan contributes its rent to its reservation month and its fines to its
+// return month (lateral VALUES, a single pass over the loans of the range).
+//
+// Closed months are cached in loan_monthly_stats. They still change when a fine of that month is
+// paid (or a loan is back-dated), so every loan write deletes the cached row of the month it touches,
+// in its own transaction. Writers take a shared advisory lock on the month and a reader filling the
+// cache takes it exclusively, so a result computed before a write commits is never stored after it.
+@Service
+@RequiredArgsConstructor
+public class LoanAnalyticsService {
+
+    // advisory lock class for the per-month locks (second key = yyyymm)
+    private static final int MONTH_LOCK = 0x6d6f6e74;
+
+    private static final int MAX_MONTHS = 120;
+
+    private static final String AGGREGATE = """
+            select date_trunc('month', v.d)::date as month_start,
+                   sum(v.loans), sum(v.rent),
+                   sum(v.late_fine), sum(v.late_fine_paid),
+                   sum(v.damage), sum(v.damage_paid)
+            from loan l
+            cross join lateral (values
+                (l.reservation_date, 1, l.total, 0, 0, 0, 0),
+                (l.late_return_date, 0, 0,
+                 l.late_fine, case when l.late_fine_paid then l.late_fine else 0 end,
+                 l.damage_penalty, case when l.damage_penalty_paid then l.damage_penalty else 0 end)
+            ) v(d, loans, rent, late_fine, late_fine_paid, damage, damage_paid)
+            where (l.reservation_date between ? and ? or l.late_return_date between ? and ?)
+              and v.d between ? and ?
+            group by 1
+            """;
+
+    private static final String UPSERT = """
+            insert into loan_monthly_stats (month_start, loans, rent, late_fines, late_fines_paid,
+                                            damage_penalties, damage_penalties_paid, computed_at)
+            values (?, ?, ?, ?, ?, ?, ?, ?)
+            on conflict (month_start)
+            do update set loans = excluded.loans, rent = excluded.rent,
+                          late_fines = excluded.late_fines, late_fines_paid = excluded.late_fines_paid,
+                          damage_penalties = excluded.damage_penalties,
+                          damage_penalties_paid = excluded.damage_penalties_paid,
+                          computed_at = excluded.computed_at
+            """;
+
+    private final LoanMonthlyStatsRepository monthlyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // closed = month already over (served from the cache when possible)
+    public record MonthStats(
+            String month,
+            boolean closed,
+            long loans,
+            long rent,
+            long lateFines,
+            long lateFinesPaid,
+            long lateFinesUnpaid,
+            long damagePenalties,
+            long damagePenaltiesPaid,
+            long damagePenaltiesUnpaid
+    ) {}
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexes() {
+        try {
+            jdbcTemplate.execute("create index if not exists ix_loan_reservation_date on loan (reservation_date)");
+            jdbcTemplate.execute("create index if not exists ix_loan_late_return_date on loan (late_return_date)");
+        } catch (Exception ignored) {
+            // best-effort
+        }
+    }
+
+    // =========================
+    // Read
+    // =========================
+    // from/to: "yyyy-MM" (default: the last 12 months up to the current one)
+    public List<MonthStats> monthly(String from, String to) {
+        YearMonth current = YearMonth.now();
+        YearMonth last = (to == null || to.isBlank()) ? current : parse(to);
+        YearMonth first = (from == null || from.isBlank()) ? last.minusMonths(11) : parse(from);
+        if (last.isBefore(first)) throw new IllegalArgumentException("to must be on or after from");
+        if (ChronoUnit.MONTHS.between(first, last) >= MAX_MONTHS)
+            throw new IllegalArgumentException("Range too large (max " + MAX_MONTHS + " months)");
+
+        Map<YearMonth, LoanMonthlyStatsEntity> byMonth = new TreeMap<>();
+        for (LoanMonthlyStatsEntity row : monthlyRepository.findByMonthStartBetween(first.atDay(1), last.atDay(1))) {
+            byMonth.put(YearMonth.from(row.getMonthStart()), row);
+        }
+
+        List<YearMonth> missing = new ArrayList<>();
+        for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+            if (!byMonth.containsKey(m)) missing.add(m);
+        }
+        if (!missing.isEmpty()) byMonth.putAll(compute(missing, current));
+
+        List<MonthStats> out = new ArrayList<>();
+        for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+            LoanMonthlyStatsEntity r = byMonth.get(m);
+            out.add(new MonthStats(m.toString(), m.isBefore(current),
+                    r.getLoans(), r.getRent(),
+                    r.getLateFines(), r.getLateFinesPaid(), r.getLateFines() - r.getLateFinesPaid(),
+                    r.getDamagePenalties(), r.getDamagePenaltiesPaid(), r.getDamagePenalties() - r.getDamagePenaltiesPaid()));
+        }
+        return out;
+    }
+
+    // One aggregate over the span of the missing months; the closed ones are stored
+    private Map<YearMonth, LoanMonthlyStatsEntity> compute(List<YearMonth> missing, YearMonth current) {
+        return transactionTemplate.execute(s -> {
+            List<YearMonth> closed = missing.stream().filter(m -> m.isBefore(current)).toList();
+            for (YearMonth m : closed) {
+                jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?, ?)", Object.class, MONTH_LOCK, key(m));
+            }
+
+            Date start = Date.valueOf(missing.get(0).atDay(1));
+            Date end = Date.valueOf(missing.get(missing.size() - 1).atEndOfMonth());
+            LocalDateTime now = LocalDateTime.now();
+
+            Map<YearMonth, LoanMonthlyStatsEntity> rows = new HashMap<>();
+            for (YearMonth m : missing) rows.put(m, new LoanMonthlyStatsEntity(m.atDay(1), 0, 0, 0, 0, 0, 0, now));
+            jdbcTemplate.query(AGGREGATE, rs -> {
+                YearMonth m = YearMonth.from(rs.getDate(1).toLocalDate());
+                LoanMonthlyStatsEntity r = rows.get(m);
+                if (r == null) return;  // month in the span that was already cached
+                r.setLoans(rs.getLong(2));
+                r.setRent(rs.getLong(3));
+                r.setLateFines(rs.getLong(4));
+                r.setLateFinesPaid(rs.getLong(5));
+                r.setDamagePenalties(rs.getLong(6));
+                r.setDamagePenaltiesPaid(rs.getLong(7));
+            }, start, end, start, end, start, end);
+
+            List<Object[]> batch = new ArrayList<>(closed.size());
+            for (YearMonth m : closed) {
+                LoanMonthlyStatsEntity r = rows.get(m);
+                batch.add(new Object[]{Date.valueOf(r.getMonthStart()), r.getLoans(), r.getRent(),
+                        r.getLateFines(), r.getLateFinesPaid(), r.getDamagePenalties(), r.getDamagePenaltiesPaid(),
+                        Timestamp.valueOf(now)});
+            }
+            if (!batch.isEmpty()) jdbcTemplate.batchUpdate(UPSERT, batch);
+            return rows;
+        });
+    }
+
+    // =========================
+    // Invalidation (same transaction as the loan write)
+    // =========================
+    // day = the date the write books amounts on (reservation date, return date)
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void invalidate(LocalDate day) {
+        if (day == null) return;
+        YearMonth m = YearMonth.from(day);
+        jdbcTemplate.queryForObject("select pg_advisory_xact_lock_shared(?, ?)", Object.class, MONTH_LOCK, key(m));
+        jdbcTemplate.update("delete from loan_monthly_stats where month_start = ?", Date.valueOf(m.atDay(1)));
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    private YearMonth parse(String value) {
+        try {
+            return YearMonth.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid month (expected yyyy-MM): " + value);
+        }
+    }
+
+    private int key(YearMonth m) {
+        return m.getYear() * 100 + m.getMonthValue();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.repositories.LoanRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+// Change cursor over the loan table, for consumers that keep derived data up to date (report-service
+// materializations) instead of re-reading everything.
+//
+// A trigger stamps every inserted/updated loan row (JPA saves and bulk JPQL updates alike) with the
+// writing transaction's id and a sequence number. Changes are read in (xid, seq) order and only
+// from transactions older than the current snapshot's xmin, i.e. already finished: a transaction
+// that commits late can never end up behind a cursor that was already handed out.
+// Cursor format: "<xid>:<seq>" ("0:0" = from the beginning). Rows not touched since the trigger
+// was installed have no stamp and are not part of the feed (consumers start from a full read).
+// Without the trigger (Postgres < 14: no xid8) head() is ORIGIN and every page is empty, and
+// consumers treat an ORIGIN cursor as "no cursor" and keep recomputing.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LoanChangeFeed {
+
+    public static final String ORIGIN = "0:0";
+
+    private static final int MAX_LIMIT = 1000;
+
+    private final LoanRepository loanRepository;
+    private final LoanExportService loanExportService;
+    private final JdbcTemplate jdbcTemplate;
+
+    public record ChangePage(List<LoanExportService.LoanRow> changes, String next, boolean hasMore) {}
+
+    // set once the trigger and its columns are in place (the queries below need them)
+    private volatile boolean installed;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void installTrigger() {
+        try {
+            jdbcTemplate.execute("create sequence if not exists loan_change_seq");
+            jdbcTemplate.execute("alter table loan add column if not exists change_xid xid8");
+            jdbcTemplate.execute("alter table loan add column if not exists change_seq bigint");
+            jdbcTemplate.execute("""
+                    create or replace function loan_mark_change() returns trigger language plpgsql as $$
+                    begin
+                        new.change_xid := pg_current_xact_id();
+                        new.change_seq := nextval('loan_change_seq');
+                        return new;
+                    end
+                    $$
+                    """);
+            jdbcTemplate.execute("""
+                    create or replace trigger trg_loan_change
+                    before insert or update on loan
+                    for each row execute function loan_mark_change()
+                    """);
+            jdbcTemplate.execute("create index if not exists ix_loan_change on loan (change_xid, change_seq)");
+            installed = true;
+        } catch (Exception ex) {
+            log.warn("Loan change feed disabled, trigger not installed (needs Postgres 14+): {}", ex.getMessage());
+        }
+    }
+
+    // Cursor of the newest finished change: take it BEFORE a full read, then follow with changes(head)
+    // (anything committed meanwhile is delivered again; consumers apply changes idempotently)
+    @Transactional(readOnly = true)
+    public String head() {
+        if (!installed) return ORIGIN;
+        List<String> rows = jdbcTemplate.query("""
+                select change_xid::text || ':' || change_seq
+                from loan
+                where change_xid < pg_snapshot_xmin(pg_current_snapshot())
+                order by change_xid desc, change_seq desc
+                limit 1
+                """, (rs, i) -> rs.getString(1));
+        return rows.isEmpty() ? ORIGIN : rows.get(0);
+    }
+
+    // Loans changed after the cursor (current state of each, once), oldest change first
+    @Transactional(readOnly = true)
+    public ChangePage changes(String after, int limit) {
+        long[] cursor = parse((after == null || after.isBlank()) ? ORIGIN : after);
+        int max = Math.min(Math.max(limit, 1), MAX_LIMIT);
+        if (!installed) return new ChangePage(List.of(), format(cursor[0], cursor[1]), false);
+
+        List<Object[]> rows = jdbcTemplate.query("""
+                select id, change_xid::text, change_seq
+                from loan
+                where change_xid is not null
+                  and (change_xid, change_seq) > (cast(? as xid8), ?)
+                  and change_xid < pg_snapshot_xmin(pg_current_snapshot())
+                order by change_xid, change_seq
+                limit ?
+                """, (rs, i) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getLong(3)},
+                Long.toString(cursor[0]), cursor[1], max + 1);
+
+        boolean hasMore = rows.size() > max;
+        if (hasMore) rows = rows.subList(0, max);
+        if (rows.isEmpty()) return new ChangePage(List.of(), format(cursor[0], cursor[1]), false);
+
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (Object[] r : rows) ids.add((Long) r[0]);
+
+        Map<Long, LoanEntity> byId = new HashMap<>();
+        for (LoanEntity l : loanRepository.findAllById(ids)) byId.put(l.getId(), l);
+        List<LoanEntity> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            LoanEntity l = byId.get(id);
+            if (l != null) ordered.add(l);
+        }
+
+        Object[] last = rows.get(rows.size() - 1);
+        return new ChangePage(loanExportService.toRows(ordered), last[1] + ":" + last[2], hasMore);
+    }
+
+    private long[] parse(String cursor) {
+        try {
+            int sep = cursor.indexOf(':');
+            long xid = Long.parseLong(cursor.substring(0, sep));
+            long seq = Long.parseLong(cursor.substring(sep + 1));
+            if (xid < 0 || seq < 0) throw new NumberFormatException();
+            return new long[]{xid, seq};
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    private String format(long xid, long seq) {
+        return xid + ":" + seq;
+    }
+}
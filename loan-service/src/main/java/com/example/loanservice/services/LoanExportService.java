@@ -0,0 +1,125 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.repositories.LoanItemRepository;
+import com.example.loanservice.repositories.LoanRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+// NDJSON exports (one loan per line) read through a DB cursor: loans come from a JPA Stream with a
+// fetch size, their items are loaded per chunk with one query, and the persistence context is
+// cleared after every chunk, so heap stays flat whatever the number of rows.
+@Service
+@RequiredArgsConstructor
+public class LoanExportService {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int CHUNK = 500;
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final LoanRepository loanRepository;
+    private final LoanItemRepository loanItemRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // same fields as LoanEntity's JSON (items without the back reference)
+    public record ItemRow(Long id, Long toolId, String toolNameSnapshot) {}
+
+    public record LoanRow(
+            Long id,
+            String rutUser,
+            LocalDate reservationDate,
+            LocalDate returnDate,
+            LocalDate lateReturnDate,
+            boolean overdue,
+            int total,
+            int lateFine,
+            int damagePenalty,
+            boolean lateFinePaid,
+            boolean damagePenaltyPaid,
+            Integer amountOfTools,
+            List<ItemRow> items
+    ) {}
+
+    // Runs when the response is written (MVC async thread), in its own read-only transaction
+    public StreamingResponseBody activeLoans(String rutUser, LocalDate start, LocalDate end) {
+        String rut = (rutUser == null || rutUser.isBlank()) ? null : rutUser;
+        return out -> {
+            TransactionTemplate readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+            readOnly.setReadOnly(true);
+            try {
+                readOnly.executeWithoutResult(s -> {
+                    try (Stream<LoanEntity> loans = loanRepository.streamActive(rut, start != null, start, end != null, end)) {
+                        writeChunks(loans.iterator(), out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();  // client went away
+            }
+        };
+    }
+
+    private void writeChunks(Iterator<LoanEntity> loans, OutputStream out) throws IOException {
+        List<LoanEntity> chunk = new ArrayList<>(CHUNK);
+        while (loans.hasNext()) {
+            chunk.add(loans.next());
+            if (chunk.size() == CHUNK) {
+                writeChunk(chunk, out);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) writeChunk(chunk, out);
+    }
+
+    private void writeChunk(List<LoanEntity> chunk, OutputStream out) throws IOException {
+        for (LoanRow row : toRows(chunk)) {
+            out.write(objectMapper.writeValueAsBytes(row));
+            out.write(NEWLINE);
+        }
+        out.flush();
+        entityManager.clear();  // streamed loans are not kept in the persistence context
+    }
+
+    // Loans -> rows, with the items of all of them loaded in one query (no lazy load per loan)
+    public List<LoanRow> toRows(List<LoanEntity> loans) {
+        if (loans.isEmpty()) return List.of();
+        List<Long> ids = new ArrayList<>(loans.size());
+        for (LoanEntity l : loans) ids.add(l.getId());
+
+        Map<Long, List<ItemRow>> items = new HashMap<>();
+        for (Object[] r : loanItemRepository.findRowsByLoanIds(ids)) {
+            items.computeIfAbsent((Long) r[0], k -> new ArrayList<>())
+                    .add(new ItemRow((Long) r[1], (Long) r[2], (String) r[3]));
+        }
+
+        List<LoanRow> rows = new ArrayList<>(loans.size());
+        for (LoanEntity l : loans) {
+            rows.add(new LoanRow(
+                    l.getId(), l.getRutUser(),
+                    l.getReservationDate(), l.getReturnDate(), l.getLateReturnDate(),
+                    l.isOverdue(), l.getTotal(), l.getLateFine(), l.getDamagePenalty(),
+                    l.isLateFinePaid(), l.isDamagePenaltyPaid(), l.getAmountOfTools(),
+                    items.getOrDefault(l.getId(), List.of())
+            ));
+        }
+        return rows;
+    }
+}
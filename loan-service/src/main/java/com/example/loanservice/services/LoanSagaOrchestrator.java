@@ -0,0 +1,238 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.clients.InventoryClient;
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.entities.LoanSagaEntity;
+import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.repositories.LoanSagaRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// Loan creation as an orchestrated saga:
+// 1) plan (validations + one batch read), 2) reserve every tool in ONE keyed inventory call
+//    (keyed transitions, or the commit of a checkout hold when the client took one),
+// 3) persist the loan and confirm the saga in one local transaction.
+// A failure after 2) reverts the inventory call by its opKey; recoverStale() finishes what a
+// crashed or timed-out request left behind. The Idempotency-Key makes client retries safe:
+// a completed key returns the same loan without touching inventory.
+@Service
+@RequiredArgsConstructor
+public class LoanSagaOrchestrator {
+
+    static final String STARTED = "STARTED";
+    static final String RESERVED = "RESERVED";
+    static final String COMPLETED = "COMPLETED";
+    static final String COMPENSATING = "COMPENSATING";
+    static final String ABORTED = "ABORTED";
+
+    private static final List<String> IN_FLIGHT = List.of(STARTED, RESERVED, COMPENSATING);
+
+    private final LoanSagaRepository sagaRepository;
+    private final LoanRepository loanRepository;
+    private final LoanService loanService;
+    private final InventoryClient inventoryClient;
+    private final TransactionTemplate transactionTemplate;
+
+    // longer than any request can take (timeouts + retry), so recovery never races a live saga
+    @Value("${loans.saga.stale-after-ms:120000}")
+    private long staleAfterMs;
+
+    @Value("${loans.saga.recovery-batch-size:100}")
+    private int recoveryBatchSize;
+
+    // =========================
+    // CREATE LOAN (saga)
+    // =========================
+    public LoanEntity createLoan(
+            String idempotencyKey,
+            String rutUser,
+            LocalDate reservationDate,
+            LocalDate returnDate,
+            List<LoanService.Item> items,
+            String holdId
+    ) {
+        String key = (idempotencyKey == null || idempotencyKey.isBlank())
+                ? UUID.randomUUID().toString()
+                : idempotencyKey.trim();
+        if (key.length() > 100) throw new IllegalArgumentException("Idempotency-Key is too long (max 100).");
+
+        boolean withHold = holdId != null && !holdId.isBlank();
+        LoanSagaEntity saga = begin(key, rutUser, fingerprint(rutUser, reservationDate, returnDate, items, holdId));
+        if (COMPLETED.equals(saga.getStatus())) {
+            // replay: mismo resultado, sin tocar inventory
+            return loanRepository.findById(saga.getLoanId())
+                    .orElseThrow(() -> new IllegalStateException("Loan of saga " + saga.getId() + " not found"));
+        }
+
+        // 1) validar + armar el préstamo (solo lecturas)
+        LoanService.LoanPlan plan;
+        try {
+            plan = loanService.planLoan(rutUser, reservationDate, returnDate, items, withHold);
+        } catch (RuntimeException ex) {
+            abort(saga.getId(), List.of(STARTED), ex);  // nada reservado
+            throw ex;
+        }
+
+        // 2) reservar todo en un batch de inventory (idempotente por opKey)
+        String opKey = opKey(saga);
+        try {
+            if (withHold) {
+                List<Long> toolIds = new ArrayList<>();
+                for (var m : plan.moves()) toolIds.add(m.toolId());
+                inventoryClient.commitHold(holdId, toolIds, rutUser, opKey);
+            } else {
+                inventoryClient.moveToolStates(plan.moves(), rutUser, opKey);
+            }
+            if (!move(saga.getId(), List.of(STARTED), RESERVED))
+                throw new IllegalStateException("Loan request was aborted while reserving (saga " + saga.getId() + ")");
+        } catch (RuntimeException ex) {
+            compensate(saga.getId(), opKey, rutUser, ex);
+            throw ex;
+        }
+
+        // 3) persistir + confirmar en la misma transacción local
+        try {
+            return transactionTemplate.execute(s -> {
+                LoanSagaEntity row = sagaRepository.findForUpdate(saga.getId())
+                        .orElseThrow(() -> new IllegalStateException("Saga not found: " + saga.getId()));
+                if (!RESERVED.equals(row.getStatus()))
+                    throw new IllegalStateException("Loan request was aborted (saga " + saga.getId() + ")");
+
+                LoanEntity saved = loanService.persistLoan(plan.loan());
+                row.setStatus(COMPLETED);
+                row.setLoanId(saved.getId());
+                row.setUpdatedAt(LocalDateTime.now());
+                return saved;
+            });
+        } catch (RuntimeException ex) {
+            compensate(saga.getId(), opKey, rutUser, ex);
+            throw ex;
+        }
+    }
+
+    // =========================
+    // RECOVERY
+    // =========================
+    // Sagas nobody is driving anymore (crash, lost response, failed revert): revert their
+    // inventory op. Safe even if the op was never applied: inventory leaves a tombstone.
+    @Scheduled(fixedDelayString = "${loans.saga.recovery-ms:60000}")
+    public void recoverStale() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(staleAfterMs, ChronoUnit.MILLIS);
+        List<LoanSagaEntity> stale = sagaRepository.findStale(IN_FLIGHT, cutoff, PageRequest.of(0, recoveryBatchSize));
+
+        for (LoanSagaEntity saga : stale) {
+            Integer claimed = transactionTemplate.execute(s ->
+                    sagaRepository.claimStale(saga.getId(), IN_FLIGHT, COMPENSATING, cutoff, LocalDateTime.now()));
+            if (claimed == null || claimed == 0) continue;  // otra instancia / el request lo tomó
+
+            try {
+                inventoryClient.revertToolStates(opKey(saga), saga.getRutUser());
+                transactionTemplate.execute(s -> sagaRepository.markAborted(
+                        saga.getId(), List.of(COMPENSATING), "Recovered: stale in " + saga.getStatus(), LocalDateTime.now()));
+            } catch (RuntimeException ignored) {
+                // sigue COMPENSATING, se reintenta en la próxima pasada
+            }
+        }
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    // Inserts (or restarts) the saga row. A key that is still running -> SagaConflictException.
+    private LoanSagaEntity begin(String key, String rutUser, String fingerprint) {
+        try {
+            return transactionTemplate.execute(s -> {
+                LocalDateTime now = LocalDateTime.now();
+                LoanSagaEntity saga = sagaRepository.findForUpdateByKey(key).orElse(null);
+
+                if (saga == null) {
+                    saga = new LoanSagaEntity(null, key, fingerprint, rutUser, STARTED, 1,
+                            UUID.randomUUID().toString(), null, null, now, now);
+                    return sagaRepository.saveAndFlush(saga);
+                }
+                if (!fingerprint.equals(saga.getFingerprint()))
+                    throw new IllegalArgumentException("Idempotency-Key was already used for a different loan request.");
+                if (COMPLETED.equals(saga.getStatus())) return saga;
+                if (!ABORTED.equals(saga.getStatus()))
+                    throw new SagaConflictException("Loan request " + key + " is still in progress.");
+
+                // retry after a failed attempt: new opKey, inventory starts from a clean state
+                saga.setStatus(STARTED);
+                saga.setAttempt(saga.getAttempt() + 1);
+                saga.setOpToken(UUID.randomUUID().toString());
+                saga.setLastError(null);
+                saga.setUpdatedAt(now);
+                return saga;
+            });
+        } catch (DataIntegrityViolationException ex) {
+            // misma key insertada en paralelo
+            throw new SagaConflictException("Loan request " + key + " is still in progress.");
+        }
+    }
+
+    private void compensate(Long sagaId, String opKey, String rutUser, RuntimeException cause) {
+        try {
+            move(sagaId, List.of(STARTED, RESERVED), COMPENSATING);
+            inventoryClient.revertToolStates(opKey, rutUser);
+            abort(sagaId, List.of(COMPENSATING), cause);
+        } catch (RuntimeException ignored) {
+            // queda en vuelo: recoverStale() lo revierte
+        }
+    }
+
+    private void abort(Long sagaId, Collection<String> from, RuntimeException cause) {
+        String error = (cause == null || cause.getMessage() == null) ? null : cause.getMessage();
+        if (error != null && error.length() > 500) error = error.substring(0, 500);
+        String lastError = error;
+        transactionTemplate.execute(s -> sagaRepository.markAborted(sagaId, from, lastError, LocalDateTime.now()));
+    }
+
+    private boolean move(Long sagaId, Collection<String> from, String to) {
+        Integer n = transactionTemplate.execute(s -> sagaRepository.transition(sagaId, from, to, LocalDateTime.now()));
+        return n != null && n > 0;
+    }
+
+    private String opKey(LoanSagaEntity saga) {
+        // sagas started before opToken existed keep their old key until they finish
+        if (saga.getOpToken() == null) return "loan-saga-" + saga.getId() + "-" + saga.getAttempt();
+        return "loan-saga-" + saga.getOpToken();
+    }
+
+    private String fingerprint(String rutUser, LocalDate reservationDate, LocalDate returnDate,
+                               List<LoanService.Item> items, String holdId) {
+        List<String> lines = new ArrayList<>();
+        if (items != null) {
+            for (LoanService.Item it : items) {
+                lines.add((it == null) ? "null" : it.toolId + "x" + it.quantity);
+            }
+        }
+        Collections.sort(lines);
+        String raw = rutUser + "|" + reservationDate + "|" + returnDate + "|" + String.join(",", lines) + "|" + holdId;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // misma Idempotency-Key en curso (HTTP 409)
+    public static class SagaConflictException extends IllegalStateException {
+        public SagaConflictException(String message) {
+            super(message);
+        }
+    }
+}
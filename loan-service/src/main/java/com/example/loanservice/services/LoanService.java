@@ -1,5 +1,10 @@
 package com.example.loanservice.services;
 
+import com.example.loanservice.clients.InventoryClient;
+import com.example.loanservice.clients.InventoryClient.StateTransition;
+import com.example.loanservice.clients.InventoryClient.Tool;
+import com.example.loanservice.clients.InventoryClient.ToolBatchRow;
+import com.example.loanservice.clients.UserClient;
 import com.example.loanservice.entities.LoanEntity;
 import com.example.loanservice.entities.LoanItemEntity;
 import com.example.loanservice.repositories.LoanRepository;
@@ -7,15 +12,10 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
 
 
-import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
@@ -25,30 +25,29 @@ import java.util.*;
 public class LoanService {
 
     private final LoanRepository loanRepository;
-    private final RestTemplate restTemplate;
-
-    // ServiceId en Eureka (usa @LoadBalanced en RestTemplate)
-    @Value("${services.inventory.base-url:http://inventory-service}")
-    private String inventoryBaseUrl;
-
-    @Value("${settings.daily-rent-price:2500}")
-    private int dailyRentPrice;
+    private final LoanUserSummaryService summaryService;
+    private final LoanStatsService statsService;
+    private final LoanAnalyticsService analyticsService;
+    private final SettingsCache settingsCache;
+    private final InventoryClient inventoryClient;
+    private final UserClient userClient;
 
     @Value("${features.check-user-active:false}")
     private boolean checkUserActive;
 
-    @Value("${services.user.base-url:http://user-service}")
-    private String userBaseUrl;
-
     // =========================
-    // CREATE LOAN
+    // CREATE LOAN (pasos del saga, ver LoanSagaOrchestrator)
     // =========================
+    // Validaciones + una lectura batch a inventory. No escribe el préstamo ni mueve stock:
+    // devuelve el préstamo sin guardar y los movimientos a reservar.
+    // stockHeld: las unidades ya están apartadas por un hold (no cuentan en amount)
     @Transactional
-    public LoanEntity createLoan(
+    public LoanPlan planLoan(
             String rutUser,
             LocalDate reservationDate,
             LocalDate returnDate,
-            List<Item> items
+            List<Item> items,
+            boolean stockHeld
     ) {
         if (reservationDate == null || returnDate == null)
             throw new IllegalArgumentException("Reservation and return dates are required.");
@@ -61,29 +60,31 @@ public class LoanService {
 
         // (Opcional) Validar usuario activo
         if (checkUserActive) {
-            Boolean active = fetchUserActive(rutUser);
+            Boolean active = userClient.fetchUserActive(rutUser);
             if (active != null && !active) {
                 throw new IllegalArgumentException("User is inactive due to overdue loans or unpaid fines.");
             }
         }
 
-        // Max 5 active loans
-        long activeCount = loanRepository.countByRutUserAndLateReturnDateIsNull(rutUser);
-        if (activeCount >= 5)
-            throw new IllegalArgumentException("User already has 5 active loans.");
+        // Max active loans (setting-service, default 5)
+        int maxActive = settingsCache.getMaxActiveLoans();
+        long activeCount = summaryService.get(rutUser).getActiveLoans();
+        if (activeCount >= maxActive)
+            throw new IllegalArgumentException("User already has " + maxActive + " active loans.");
 
         LoanEntity loan = new LoanEntity();
         loan.setRutUser(rutUser);
         loan.setReservationDate(reservationDate);
         loan.setReturnDate(returnDate);
         loan.setLateReturnDate(null);
+        loan.setOverdue(false);
         loan.setLateFine(0);
         loan.setDamagePenalty(0);
 
         loan.setTotal(calculateLoanTotal(reservationDate, returnDate));
 
-        Set<Long> seen = new HashSet<>();
-
+        // 1) Validar items antes de tocar inventory
+        Set<Long> seen = new LinkedHashSet<>();
         for (Item it : items) {
             if (it == null || it.toolId == null)
                 throw new IllegalArgumentException("Each item requires 'toolId'.");
@@ -94,26 +95,32 @@ public class LoanService {
             int qty = (it.quantity == null) ? 1 : it.quantity;
             if (qty <= 0) throw new IllegalArgumentException("quantity must be >= 1");
             if (qty != 1) throw new IllegalArgumentException("Only one unit per tool is allowed.");
+        }
+
+        // 2) Una sola consulta a inventory: tools + ids "Prestada" por name/category
+        Map<Long, ToolBatchRow> batch = inventoryClient.fetchToolBatch(seen, "Prestada");
+        List<StateTransition> moves = new ArrayList<>();
 
-            // 1) Consultar tool en inventory (Map)
-            Map<String, Object> disponibleTool = fetchToolMap(it.toolId);
-            if (disponibleTool == null)
-                throw new IllegalArgumentException("Tool not found (id=" + it.toolId + ")");
+        for (Long toolId : seen) {
+            ToolBatchRow row = batch.get(toolId);
+            if (row == null)
+                throw new IllegalArgumentException("Tool not found (id=" + toolId + ")");
 
-            String initialState = asString(disponibleTool.get("initialState"));
-            int amount = asInt(disponibleTool.get("amount"), 0);
-            String name = asString(disponibleTool.get("name"));
-            String category = asString(disponibleTool.get("category"));
+            Tool disponibleTool = row.tool();
+            String initialState = disponibleTool.initialState();
+            int amount = disponibleTool.amount();
+            String name = disponibleTool.name();
+            String category = disponibleTool.category();
 
             if (!"Disponible".equalsIgnoreCase(initialState))
-                throw new IllegalArgumentException("Tool id=" + it.toolId + " is not 'Disponible'.");
+                throw new IllegalArgumentException("Tool id=" + toolId + " is not 'Disponible'.");
 
-            if (amount < qty)
-                throw new IllegalArgumentException("Not enough stock for tool id=" + it.toolId +
+            if (!stockHeld && amount < 1)
+                throw new IllegalArgumentException("Not enough stock for tool id=" + toolId +
                         ". Available: " + amount);
 
-            // 2) Validación: mismo usuario no puede tener préstamo activo de misma herramienta (name+category)
-            List<Long> prestadaIds = fetchIdsByNameCategoryState(name, category, "Prestada");
+            // 3) Validación: mismo usuario no puede tener préstamo activo de misma herramienta (name+category)
+            List<Long> prestadaIds = row.stateIds();
 
             if (!prestadaIds.isEmpty()) {
                 boolean alreadyActive = loanRepository.existsActiveWithAnyToolId(rutUser, prestadaIds);
@@ -125,17 +132,27 @@ public class LoanService {
                 }
             }
 
-            // 3) Cambiar estado en inventory: Disponible -> Prestada
-            moveToolState(it.toolId, "Prestada", rutUser);
+            // 4) Acumular cambio de estado: Disponible -> Prestada
+            moves.add(StateTransition.of(toolId, "Prestada"));
 
-            // 4) Guardar loan_item con toolId + snapshot
+            // 5) Guardar loan_item con toolId + snapshot
             LoanItemEntity line = new LoanItemEntity();
-            line.setToolId(it.toolId);
+            line.setToolId(toolId);
             line.setToolNameSnapshot(name);
             loan.addItem(line);
         }
 
-        return loanRepository.save(loan);
+        return new LoanPlan(loan, moves);
+    }
+
+    // Paso local del saga, con la reserva en inventory ya hecha
+    @Transactional
+    public LoanEntity persistLoan(LoanEntity loan) {
+        LoanEntity saved = loanRepository.save(loan);
+        summaryService.onLoanCreated(saved);
+        statsService.onLoanCreated(saved);
+        analyticsService.invalidate(saved.getReservationDate());
+        return saved;
     }
 
     // =========================
@@ -183,43 +200,55 @@ public class LoanService {
 
         int damagePenalty = 0;
 
+        Map<Long, ToolBatchRow> batch = inventoryClient.fetchToolBatch(loanToolIds, "Prestada");
+        List<StateTransition> moves = new ArrayList<>();
+
         for (LoanItemEntity line : loan.getItems()) {
             Long toolId = line.getToolId();
 
-            Map<String, Object> toolMap = fetchToolMap(toolId);
-            if (toolMap == null)
+            ToolBatchRow row = batch.get(toolId);
+            if (row == null)
                 throw new IllegalArgumentException("Tool not found in inventory (id=" + toolId + ")");
 
-            int repositionValue = asInt(toolMap.get("repositionValue"), 0);
+            int repositionValue = row.tool().repositionValue();
+            String category = row.tool().category();
 
             if (irreparableToolIds.contains(toolId)) {
                 damagePenalty += Math.max(0, repositionValue);
-                moveToolState(toolId, "Dada de baja", loan.getRutUser());
+                moves.add(StateTransition.of(toolId, "Dada de baja"));
 
             } else if (damagedToolIds.contains(toolId)) {
-                int repair = Math.max(0, Optional.ofNullable(repairCosts.get(toolId)).orElse(0));
+                // costo explícito del request o, si no viene, la tabla de costos por categoría
+                Integer explicit = repairCosts.get(toolId);
+                int repair = Math.max(0, (explicit != null) ? explicit : settingsCache.getRepairCost(category));
                 damagePenalty += repair;
-                moveToolState(toolId, "En reparación", loan.getRutUser());
+                moves.add(StateTransition.of(toolId, "En reparación"));
 
             } else {
-                moveToolState(toolId, "Disponible", loan.getRutUser());
+                moves.add(StateTransition.of(toolId, "Disponible"));
             }
         }
 
-        int fineRate = (finePerDay == null) ? 0 : Math.max(0, finePerDay);
+        inventoryClient.moveToolStates(moves, loan.getRutUser());
+
+        int fineRate = Math.max(0, (finePerDay == null) ? settingsCache.getFinePerDay() : finePerDay);
         long lateDays = Math.max(0, ChronoUnit.DAYS.between(loan.getReturnDate(), actualReturnDate));
         int lateFine = (int) (lateDays * (long) fineRate);
 
         loan.setLateReturnDate(actualReturnDate);
+        loan.setOverdue(false);
         loan.setLateFine(lateFine);
         loan.setDamagePenalty(damagePenalty);
         if (lateFine > 0) loan.setLateFinePaid(false);
         if (damagePenalty > 0) loan.setDamagePenaltyPaid(false);
 
-        LoanEntity saved = loanRepository.save(loan);
+        LoanEntity saved = loanRepository.saveAndFlush(loan);
+        summaryService.onLoanReturned(saved);
+        statsService.onLoanReturned(saved);
+        analyticsService.invalidate(saved.getLateReturnDate());
 
         if (checkUserActive) {
-            recomputeUserActive(loan.getRutUser());
+            userClient.recomputeUserActive(loan.getRutUser());
         }
         return saved;
     }
@@ -232,13 +261,23 @@ public class LoanService {
         LoanEntity loan = loanRepository.findById(loanId)
                 .orElseThrow(() -> new IllegalArgumentException("Loan not found: " + loanId));
 
-        if (payLateFine && loan.getLateFine() > 0) loan.setLateFinePaid(true);
-        if (payDamagePenalty && loan.getDamagePenalty() > 0) loan.setDamagePenaltyPaid(true);
+        int lateFinePaidNow = 0;
+        int damagePaidNow = 0;
+        if (payLateFine && loan.getLateFine() > 0 && !loan.isLateFinePaid()) {
+            loan.setLateFinePaid(true);
+            lateFinePaidNow = loan.getLateFine();
+        }
+        if (payDamagePenalty && loan.getDamagePenalty() > 0 && !loan.isDamagePenaltyPaid()) {
+            loan.setDamagePenaltyPaid(true);
+            damagePaidNow = loan.getDamagePenalty();
+        }
 
         LoanEntity saved = loanRepository.save(loan);
+        summaryService.onFinesPaid(loan.getRutUser(), lateFinePaidNow, damagePaidNow);
+        if (lateFinePaidNow > 0 || damagePaidNow > 0) analyticsService.invalidate(loan.getLateReturnDate());
 
         if (checkUserActive) {
-            recomputeUserActive(loan.getRutUser());
+            userClient.recomputeUserActive(loan.getRutUser());
         }
         return saved;
     }
@@ -270,12 +309,12 @@ public class LoanService {
         );
     }
 
+    // overdue flag maintained by OverdueSweeper (partial index ix_loan_overdue_active)
     public Page<LoanEntity> listOverdueLoans(String rutUser, Pageable pageable) {
-        LocalDate today = LocalDate.now();
         if (rutUser == null || rutUser.isBlank()) {
-            return loanRepository.findByLateReturnDateIsNullAndReturnDateBefore(today, pageable);
+            return loanRepository.findByOverdueTrueAndLateReturnDateIsNull(pageable);
         }
-        return loanRepository.findByRutUserAndLateReturnDateIsNullAndReturnDateBefore(rutUser, today, pageable);
+        return loanRepository.findByRutUserAndOverdueTrueAndLateReturnDateIsNull(rutUser, pageable);
     }
 
     // =========================
@@ -283,111 +322,14 @@ public class LoanService {
     // =========================
 
     private int calculateLoanTotal(LocalDate reservationDate, LocalDate returnDate) {
-        int daily = fetchDailyRateOrDefault();     // ✅ dinámico
+        int daily = settingsCache.getDailyRate();  // cache local (SettingsCache)
         long days = ChronoUnit.DAYS.between(reservationDate, returnDate);
         if (days < 1) days = 1;
         return (int) (days * (long) daily);
     }
 
 
-    // =========================
-    // Inventory calls (SIN DTO)
-    // =========================
-    private void moveToolState(Long toolId, String newState, String rutUser) {
-        try {
-            String url = UriComponentsBuilder
-                    .fromUriString(inventoryBaseUrl)
-                    .path("/tool/{id}")
-                    .queryParam("state", newState)
-                    .queryParam("rutUser", rutUser)
-                    .buildAndExpand(toolId)
-                    .toUriString();
-
-            restTemplate.put(url, null);
-        } catch (RestClientException ex) {
-            throw new IllegalStateException("Inventory-service no respondió al cambiar estado (toolId=" + toolId + ")", ex);
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> fetchToolMap(Long toolId) {
-        try {
-            String url = inventoryBaseUrl + "/tool/" + toolId;
-            ResponseEntity<Map> resp = restTemplate.getForEntity(url, Map.class);
-            return resp.getBody();
-        } catch (RestClientException ex) {
-            return null;
-        }
-    }
-
-    private List<Long> fetchIdsByNameCategoryState(String name, String category, String state) {
-        try {
-            String url = UriComponentsBuilder
-                    .fromUriString(inventoryBaseUrl)
-                    .path("/tool/ids")
-                    .queryParam("name", name)
-                    .queryParam("category", category)
-                    .queryParam("state", state)
-                    .build()
-                    .toUriString();
-
-            ResponseEntity<List> resp = restTemplate.getForEntity(url, List.class);
-            List<?> raw = resp.getBody();
-            if (raw == null) return List.of();
-
-            List<Long> out = new ArrayList<>();
-            for (Object o : raw) {
-                out.add(asLong(o));
-            }
-            return out;
-        } catch (RestClientException ex) {
-            return List.of();
-        }
-    }
-
-    // =========================
-    // User calls (opcionales)
-    // =========================
-    private Boolean fetchUserActive(String rutUser) {
-        try {
-            String url = userBaseUrl + "/user/" + rutUser + "/active";
-            return restTemplate.getForObject(url, Boolean.class);
-        } catch (RestClientException ex) {
-            return null;
-        }
-    }
-
-    private void recomputeUserActive(String rutUser) {
-        try {
-            String url = userBaseUrl + "/user/" + rutUser + "/recompute-active";
-            restTemplate.postForEntity(url, null, Void.class);
-        } catch (RestClientException ignored) {}
-    }
-
-    // =========================
-    // Converters seguros (Map -> types)
-    // =========================
-    private String asString(Object v) {
-        return (v == null) ? null : String.valueOf(v);
-    }
-
-    private int asInt(Object v, int def) {
-        if (v == null) return def;
-        if (v instanceof Integer i) return i;
-        if (v instanceof Long l) return Math.toIntExact(l);
-        if (v instanceof Double d) return d.intValue();
-        if (v instanceof Float f) return f.intValue();
-        if (v instanceof BigDecimal bd) return bd.intValue();
-        try { return Integer.parseInt(String.valueOf(v)); } catch (Exception e) { return def; }
-    }
-
-    private Long asLong(Object v) {
-        if (v == null) return null;
-        if (v instanceof Long l) return l;
-        if (v instanceof Integer i) return i.longValue();
-        if (v instanceof BigDecimal bd) return bd.longValue();
-        try { return Long.parseLong(String.valueOf(v)); } catch (Exception e) { return null; }
-    }
+    public record LoanPlan(LoanEntity loan, List<StateTransition> moves) {}
 
     // Body para creación (esto NO es DTO de dominio; es el body del request)
     public static class Item {
@@ -396,18 +338,4 @@ public class LoanService {
         public Item() {}
     }
 
-    @Value("${services.setting.base-url:http://setting-service}")
-    private String settingBaseUrl;
-
-    private int fetchDailyRateOrDefault() {
-        try {
-            String url = settingBaseUrl + "/settings/daily-rate";
-            ResponseEntity<Map> resp = restTemplate.getForEntity(url, Map.class);
-            Object v = resp.getBody() != null ? resp.getBody().get("value") : null;
-            return asInt(v, 2500);
-        } catch (Exception e) {
-            return 2500;
-        }
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,210 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.entities.LoanItemEntity;
+import com.example.loanservice.repositories.LoanDailyStatsRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// Daily loan statistics per tool name (loan_daily_stats, see LoanDailyStatsEntity).
+// Writes are additive upserts in the loan's transaction; rebuild() recomputes the whole table from
+// loan/loan_item with one INSERT ... SELECT using the same attribution as the live writes.
+@Service
+@RequiredArgsConstructor
+public class LoanStatsService {
+
+    private static final int MAX_RANGE_DAYS = 3660;
+
+    private static final String UPSERT = """
+            insert into loan_daily_stats (stat_date, tool_name, loans, revenue, late_fines, damage_penalties)
+            values (?, ?, ?, ?, ?, ?)
+            on conflict (stat_date, tool_name)
+            do update set loans = loan_daily_stats.loans + excluded.loans,
+                          revenue = loan_daily_stats.revenue + excluded.revenue,
+                          late_fines = loan_daily_stats.late_fines + excluded.late_fines,
+                          damage_penalties = loan_daily_stats.damage_penalties + excluded.damage_penalties
+            """;
+
+    // Per line: loans/revenue on reservation_date, fines on late_return_date; amounts split evenly
+    // across the loan's lines in id order (first `amount % n` lines get one more), as in split()
+    static final String REBUILD = """
+            insert into loan_daily_stats (stat_date, tool_name, loans, revenue, late_fines, damage_penalties)
+            with lines as (
+                select l.reservation_date, l.late_return_date, l.total, l.late_fine, l.damage_penalty,
+                       coalesce(li.tool_name_snapshot, '') as tool_name,
+                       row_number() over (partition by l.id order by li.id) as rn,
+                       count(*) over (partition by l.id) as n
+                from loan l
+                join loan_item li on li.loan_id = l.id
+            ),
+            shares as (
+                select reservation_date as stat_date, tool_name, 1 as loans,
+                       total / n + case when rn <= total % n then 1 else 0 end as revenue,
+                       0 as late_fines, 0 as damage_penalties
+                from lines
+                where reservation_date is not null
+                union all
+                select late_return_date, tool_name, 0, 0,
+                       late_fine / n + case when rn <= late_fine % n then 1 else 0 end,
+                       damage_penalty / n + case when rn <= damage_penalty % n then 1 else 0 end
+                from lines
+                where late_return_date is not null and (late_fine > 0 or damage_penalty > 0)
+            )
+            select stat_date, tool_name, sum(loans), sum(revenue), sum(late_fines), sum(damage_penalties)
+            from shares
+            group by stat_date, tool_name
+            """;
+
+    private final LoanDailyStatsRepository statsRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public record DayStats(LocalDate date, long loans, long revenue, long lateFines, long damagePenalties) {}
+
+    public record ToolStats(String tool, long loans, long revenue, long lateFines, long damagePenalties) {}
+
+    // =========================
+    // Writes (same transaction as the loan change, after the loan is saved)
+    // =========================
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void onLoanCreated(LoanEntity loan) {
+        List<LoanItemEntity> lines = lines(loan);
+        if (lines.isEmpty() || loan.getReservationDate() == null) return;
+
+        Map<String, long[]> byTool = new TreeMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            long[] t = byTool.computeIfAbsent(name(lines.get(i)), k -> new long[4]);
+            t[0]++;
+            t[1] += split(loan.getTotal(), lines.size(), i);
+        }
+        upsert(loan.getReservationDate(), byTool);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void onLoanReturned(LoanEntity loan) {
+        List<LoanItemEntity> lines = lines(loan);
+        if (lines.isEmpty() || loan.getLateReturnDate() == null) return;
+        if (loan.getLateFine() <= 0 && loan.getDamagePenalty() <= 0) return;
+
+        Map<String, long[]> byTool = new TreeMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            long[] t = byTool.computeIfAbsent(name(lines.get(i)), k -> new long[4]);
+            t[2] += split(loan.getLateFine(), lines.size(), i);
+            t[3] += split(loan.getDamagePenalty(), lines.size(), i);
+        }
+        upsert(loan.getLateReturnDate(), byTool);
+    }
+
+    // =========================
+    // Backfill
+    // =========================
+    // Recomputes the table from loans. Live writes wait on the table lock and then add their own
+    // change, so nothing is counted twice or lost. Returns the number of rows written.
+    public int rebuild() {
+        Integer rows = transactionTemplate.execute(s -> {
+            jdbcTemplate.execute("lock table loan_daily_stats in exclusive mode");
+            jdbcTemplate.update("delete from loan_daily_stats");
+            return jdbcTemplate.update(REBUILD);
+        });
+        return (rows == null) ? 0 : rows;
+    }
+
+    // First start with existing loans
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        try {
+            if (statsRepository.count() > 0) return;
+            Boolean anyLoan = jdbcTemplate.queryForObject("select exists (select 1 from loan_item)", Boolean.class);
+            if (Boolean.TRUE.equals(anyLoan)) rebuild();
+        } catch (Exception ignored) {
+            // se puede lanzar a mano con POST /loan/reports/stats/rebuild
+        }
+    }
+
+    // =========================
+    // Reads
+    // =========================
+    public List<Object[]> topByToolName(LocalDate start, LocalDate end, int limit) {
+        return statsRepository.topByToolName(start != null, start, end != null, end, PageRequest.of(0, limit));
+    }
+
+    // one entry per day in [start, end] (days without loans or fines as zeros)
+    public List<DayStats> daily(LocalDate start, LocalDate end, String tool) {
+        checkRange(start, end);
+        boolean hasTool = tool != null && !tool.isBlank();
+
+        Map<LocalDate, Object[]> rows = new HashMap<>();
+        for (Object[] r : statsRepository.dailyTotals(start, end, hasTool, hasTool ? tool : "")) {
+            rows.put((LocalDate) r[0], r);
+        }
+
+        List<DayStats> out = new ArrayList<>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            Object[] r = rows.get(d);
+            out.add((r == null)
+                    ? new DayStats(d, 0, 0, 0, 0)
+                    : new DayStats(d, num(r[1]), num(r[2]), num(r[3]), num(r[4])));
+        }
+        return out;
+    }
+
+    public List<ToolStats> byTool(LocalDate start, LocalDate end, int limit) {
+        checkRange(start, end);
+        List<ToolStats> out = new ArrayList<>();
+        for (Object[] r : statsRepository.totalsByTool(start, end, PageRequest.of(0, Math.max(1, limit)))) {
+            String tool = (String) r[0];
+            out.add(new ToolStats(tool.isEmpty() ? null : tool, num(r[1]), num(r[2]), num(r[3]), num(r[4])));
+        }
+        return out;
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    // share of `amount` for the i-th (0-based) of n lines; shares add up to amount
+    static long split(int amount, int n, int i) {
+        return amount / n + ((i < amount % n) ? 1 : 0);
+    }
+
+    // lines in id order (same order as the rebuild's row_number)
+    private List<LoanItemEntity> lines(LoanEntity loan) {
+        List<LoanItemEntity> lines = new ArrayList<>(loan.getItems());
+        lines.sort(Comparator.comparing(LoanItemEntity::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        return lines;
+    }
+
+    private String name(LoanItemEntity line) {
+        return (line.getToolNameSnapshot() == null) ? "" : line.getToolNameSnapshot();
+    }
+
+    // TreeMap order: concurrent loans touch the rows of a day in the same order
+    private void upsert(LocalDate day, Map<String, long[]> byTool) {
+        Date date = Date.valueOf(day);
+        List<Object[]> rows = new ArrayList<>(byTool.size());
+        byTool.forEach((tool, t) -> rows.add(new Object[]{date, tool, t[0], t[1], t[2], t[3]}));
+        jdbcTemplate.batchUpdate(UPSERT, rows);
+    }
+
+    private void checkRange(LocalDate start, LocalDate end) {
+        if (start == null || end == null) throw new IllegalArgumentException("start and end are required");
+        if (end.isBefore(start)) throw new IllegalArgumentException("end must be on or after start");
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_RANGE_DAYS)
+            throw new IllegalArgumentException("Range too large (max " + MAX_RANGE_DAYS + " days)");
+    }
+
+    private long num(Object value) {
+        return (value == null) ? 0 : ((Number) value).longValue();
+    }
+}
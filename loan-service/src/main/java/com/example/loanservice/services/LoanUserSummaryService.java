@@ -0,0 +1,117 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.entities.LoanUserSummaryEntity;
+import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.repositories.LoanUserSummaryRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+
+@Service
+@RequiredArgsConstructor
+public class LoanUserSummaryService {
+
+    private final LoanUserSummaryRepository summaryRepository;
+    private final LoanRepository loanRepository;
+
+    // =========================
+    // READ (PK lookup; a client without a row is computed from loans, not stored)
+    // =========================
+    // Never writes: the response is a detached copy, and overdue is derived from the due date
+    // here (OverdueSweeper persists it).
+    @Transactional(readOnly = true)
+    public LoanUserSummaryEntity get(String rutUser) {
+        LoanUserSummaryEntity s = summaryRepository.findById(rutUser)
+                .map(this::copy)
+                .orElseGet(() -> rebuild(new LoanUserSummaryEntity(rutUser)));
+
+        // the due date may have passed since the last write
+        if (isPast(s.getEarliestReturnDate())) s.setOverdue(true);
+        return s;
+    }
+
+    // =========================
+    // WRITES (same transaction as the loan change, called after the loan is saved;
+    // a missing row is built from loans, which already include the change)
+    // =========================
+    @Transactional
+    public LoanUserSummaryEntity onLoanCreated(LoanEntity loan) {
+        Locked locked = lock(loan.getRutUser());
+        if (locked.created()) return locked.summary();
+
+        LoanUserSummaryEntity s = locked.summary();
+        s.setActiveLoans(s.getActiveLoans() + 1);
+
+        LocalDate due = loan.getReturnDate();
+        if (s.getEarliestReturnDate() == null || due.isBefore(s.getEarliestReturnDate())) {
+            s.setEarliestReturnDate(due);
+        }
+        s.setOverdue(isPast(s.getEarliestReturnDate()));
+        return summaryRepository.save(s);
+    }
+
+    @Transactional
+    public LoanUserSummaryEntity onLoanReturned(LoanEntity loan) {
+        Locked locked = lock(loan.getRutUser());
+        if (locked.created()) return locked.summary();
+
+        LoanUserSummaryEntity s = locked.summary();
+        s.setActiveLoans(Math.max(0, s.getActiveLoans() - 1));
+        if (!loan.isLateFinePaid()) s.setUnpaidLateFines(s.getUnpaidLateFines() + loan.getLateFine());
+        if (!loan.isDamagePenaltyPaid()) s.setUnpaidDamagePenalties(s.getUnpaidDamagePenalties() + loan.getDamagePenalty());
+
+        s.setEarliestReturnDate(loanRepository.minActiveReturnDate(loan.getRutUser()));
+        s.setOverdue(isPast(s.getEarliestReturnDate()));
+        return summaryRepository.save(s);
+    }
+
+    @Transactional
+    public LoanUserSummaryEntity onFinesPaid(String rutUser, int lateFinePaid, int damagePenaltyPaid) {
+        Locked locked = lock(rutUser);
+        if (locked.created()) return locked.summary();
+
+        LoanUserSummaryEntity s = locked.summary();
+        s.setUnpaidLateFines(Math.max(0, s.getUnpaidLateFines() - lateFinePaid));
+        s.setUnpaidDamagePenalties(Math.max(0, s.getUnpaidDamagePenalties() - damagePenaltyPaid));
+        return summaryRepository.save(s);
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    private record Locked(LoanUserSummaryEntity summary, boolean created) {}
+
+    // The client's row, locked until commit. A missing row is inserted with ON CONFLICT DO NOTHING
+    // (two first loans of one RUT at once: the second waits for the first's row instead of failing
+    // on the PK) and filled from the loan table; created = nothing left to apply on top.
+    private Locked lock(String rutUser) {
+        boolean created = summaryRepository.insertIfAbsent(rutUser) > 0;
+        LoanUserSummaryEntity s = summaryRepository.findForUpdate(rutUser)
+                .orElseThrow(() -> new IllegalStateException("Summary row missing for " + rutUser));
+        if (created) summaryRepository.save(rebuild(s));
+        return new Locked(s, created);
+    }
+
+    private LoanUserSummaryEntity copy(LoanUserSummaryEntity s) {
+        return new LoanUserSummaryEntity(s.getRutUser(), s.getActiveLoans(), s.getEarliestReturnDate(),
+                s.isOverdue(), s.getUnpaidLateFines(), s.getUnpaidDamagePenalties());
+    }
+
+    // Aggregates the loan table for a client without a summary row yet
+    private LoanUserSummaryEntity rebuild(LoanUserSummaryEntity s) {
+        String rutUser = s.getRutUser();
+        s.setActiveLoans((int) loanRepository.countByRutUserAndLateReturnDateIsNull(rutUser));
+        s.setEarliestReturnDate(loanRepository.minActiveReturnDate(rutUser));
+        s.setOverdue(isPast(s.getEarliestReturnDate()));
+        s.setUnpaidLateFines((int) loanRepository.sumUnpaidLateFines(rutUser));
+        s.setUnpaidDamagePenalties((int) loanRepository.sumUnpaidDamagePenalties(rutUser));
+        return s;
+    }
+
+    private boolean isPast(LocalDate date) {
+        return date != null && date.isBefore(LocalDate.now());
+    }
+}
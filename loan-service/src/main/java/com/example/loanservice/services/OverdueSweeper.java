@@ -0,0 +1,109 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.repositories.LoanUserSummaryRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDate;
+import java.util.*;
+
+// Flips loan.overdue once a day so overdue reads hit a partial index instead of comparing dates
+@Service
+@RequiredArgsConstructor
+public class OverdueSweeper {
+
+    private final LoanRepository loanRepository;
+    private final LoanUserSummaryRepository summaryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RestTemplate restTemplate;
+
+    @Value("${loans.overdue.batch-size:500}")
+    private int batchSize;
+
+    @Value("${loans.overdue.push-deactivations:true}")
+    private boolean pushDeactivations;
+
+    @Value("${services.client.base-url:http://client-service}")
+    private String clientBaseUrl;
+
+    @Value("${internal.api-key}")
+    private String internalApiKey;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        createIndexes();
+        sweep();
+    }
+
+    @Scheduled(cron = "${loans.overdue.sweep-cron:0 5 0 * * *}")
+    public void sweep() {
+        LocalDate today = LocalDate.now();
+        Set<String> ruts = new LinkedHashSet<>();
+        long afterId = 0;
+
+        // keyset pagination over active, not-yet-flagged loans due before today
+        while (true) {
+            List<Object[]> rows = loanRepository.findOverdueCandidates(today, afterId, PageRequest.of(0, batchSize));
+            if (rows.isEmpty()) break;
+
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (Object[] r : rows) {
+                ids.add((Long) r[0]);
+                ruts.add((String) r[1]);
+            }
+            transactionTemplate.executeWithoutResult(s -> loanRepository.markOverdue(ids));
+            afterId = ids.get(ids.size() - 1);
+        }
+
+        if (ruts.isEmpty()) return;
+
+        transactionTemplate.executeWithoutResult(s -> summaryRepository.markOverdue(ruts));
+        if (pushDeactivations) deactivateClients(ruts);
+    }
+
+    // one bulk call to client-service (no user JWT on the scheduler thread)
+    private void deactivateClients(Collection<String> ruts) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Internal-Key", internalApiKey);
+        try {
+            restTemplate.postForEntity(
+                    clientBaseUrl + "/users/deactivate",
+                    new HttpEntity<>(new ArrayList<>(ruts), headers),
+                    Void.class
+            );
+        } catch (RestClientException ignored) {
+            // clients are recomputed on their next return/payment anyway
+        }
+    }
+
+    // Partial indexes (Postgres): JPA @Index cannot express the WHERE clause
+    private void createIndexes() {
+        try {
+            jdbcTemplate.execute("""
+                create index if not exists ix_loan_overdue_active
+                on loan (rut_user, return_date)
+                where overdue = true and late_return_date is null
+            """);
+            jdbcTemplate.execute("""
+                create index if not exists ix_loan_overdue_candidates
+                on loan (id, return_date)
+                where overdue = false and late_return_date is null
+            """);
+        } catch (Exception ignored) {
+            // non-Postgres databases: reads still work, only slower
+        }
+    }
+}
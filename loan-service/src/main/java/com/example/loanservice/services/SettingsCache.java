@@ -0,0 +1,147 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.clients.SettingClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Local copy of setting-service's snapshot (GET /settings/snapshot, ETag = settings version).
+// - fresher than ttl-ms: served as is
+// - older than ttl-ms: served, and revalidated in the background (refresh-ahead)
+// - older than max-staleness-ms: revalidated synchronously before answering; if that fails the
+//   getters throw IllegalStateException instead of serving older values
+// A conditional poll every poll-ms picks up writes early; unchanged settings cost a 304.
+@Service
+public class SettingsCache {
+
+    private static final Snapshot DEFAULTS = new Snapshot(null, 2500, 0, 5, Map.of(), 0);
+
+    private final SettingClient settingClient;
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "settings-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+    @Value("${settings.cache.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Value("${settings.cache.max-staleness-ms:300000}")
+    private long maxStalenessMs;
+
+    public SettingsCache(SettingClient settingClient) {
+        this.settingClient = settingClient;
+    }
+
+    public int getDailyRate() {
+        return snapshot().dailyRate;
+    }
+
+    public int getFinePerDay() {
+        return snapshot().finePerDay;
+    }
+
+    public int getMaxActiveLoans() {
+        return snapshot().maxActiveLoans;
+    }
+
+    // repair cost table by tool category (0 when not configured)
+    public int getRepairCost(String category) {
+        if (category == null) return 0;
+        return snapshot().repairCosts.getOrDefault(category, 0);
+    }
+
+    private Snapshot snapshot() {
+        Snapshot s = current.get();
+        long age = (s == null) ? Long.MAX_VALUE : System.currentTimeMillis() - s.loadedAt;
+
+        if (age > maxStalenessMs) {
+            s = load();
+            // past the staleness bound and setting-service unreachable: no rates rather than old ones
+            // (callers answer 503)
+            if (s == null) throw new IllegalStateException("Settings are unavailable, try again later.");
+        } else if (age > ttlMs) {
+            refreshAsync();
+        }
+        return s;
+    }
+
+    @Scheduled(fixedDelayString = "${settings.cache.poll-ms:15000}")
+    public void poll() {
+        load();
+    }
+
+    private void refreshAsync() {
+        if (!refreshing.compareAndSet(false, true)) return;
+        refresher.execute(() -> {
+            try {
+                load();
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    // conditional GET: 304 only renews loadedAt, 200 replaces the snapshot
+    private Snapshot load() {
+        Snapshot prev = current.get();
+        ResponseEntity<Map> resp = settingClient.fetchSnapshot((prev == null) ? null : prev.etag);
+
+        // setting-service down (or its breaker open): current snapshot kept as is, null = not refreshed
+        if (resp == null) return null;
+
+        Snapshot next;
+        if (resp.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED) && prev != null) {
+            next = prev.renewed();
+        } else {
+            next = Snapshot.from(resp.getHeaders().getETag(), resp.getBody());
+        }
+        current.set(next);
+        return next;
+    }
+
+    private record Snapshot(String etag,
+                            int dailyRate,
+                            int finePerDay,
+                            int maxActiveLoans,
+                            Map<String, Integer> repairCosts,
+                            long loadedAt) {
+
+        Snapshot renewed() {
+            return new Snapshot(etag, dailyRate, finePerDay, maxActiveLoans, repairCosts, System.currentTimeMillis());
+        }
+
+        static Snapshot from(String etag, Map<?, ?> body) {
+            if (body == null) body = Map.of();
+            Map<String, Integer> costs = new HashMap<>();
+            if (body.get("repairCosts") instanceof Map<?, ?> raw) {
+                for (Map.Entry<?, ?> e : raw.entrySet()) {
+                    costs.put(String.valueOf(e.getKey()), intOr(e.getValue(), 0));
+                }
+            }
+            return new Snapshot(
+                    etag,
+                    intOr(body.get("dailyRentPrice"), DEFAULTS.dailyRate),
+                    intOr(body.get("finePerDay"), DEFAULTS.finePerDay),
+                    intOr(body.get("maxActiveLoans"), DEFAULTS.maxActiveLoans),
+                    costs,
+                    System.currentTimeMillis()
+            );
+        }
+
+        private static int intOr(Object v, int def) {
+            return (v instanceof Number n) ? n.intValue() : def;
+        }
+    }
+}
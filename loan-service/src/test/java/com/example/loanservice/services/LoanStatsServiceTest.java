@@ -0,0 +1,67 @@
+package com.example.loanservice.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// The live writes (split) and the backfill (REBUILD) must attribute amounts to lines the same way,
+// or a rebuild would move money between tools.
+class LoanStatsServiceTest {
+
+    private static final Pattern SHARE = Pattern.compile(
+            "(\\w+) / n \\+ case when rn <= (\\w+) % n then 1 else 0 end");
+
+    @Test
+    void rebuildSplitsEveryAmountLikeSplit() {
+        String sql = LoanStatsService.REBUILD.replaceAll("\\s+", " ");
+
+        // rn is 1-based and follows the line ids, like the sort in lines()
+        assertThat(sql).contains("row_number() over (partition by l.id order by li.id) as rn");
+        assertThat(sql).contains("count(*) over (partition by l.id) as n");
+
+        Matcher m = SHARE.matcher(sql);
+        int shares = 0;
+        while (m.find()) {
+            assertThat(m.group(2)).isEqualTo(m.group(1));
+            shares++;
+        }
+        // total, late_fine, damage_penalty
+        assertThat(shares).isEqualTo(3);
+    }
+
+    @Test
+    void splitMatchesTheRebuildFormula() {
+        for (int amount = 0; amount <= 200; amount++) {
+            for (int n = 1; n <= 7; n++) {
+                for (int rn = 1; rn <= n; rn++) {
+                    long sqlShare = amount / n + ((rn <= amount % n) ? 1 : 0);
+                    assertThat(LoanStatsService.split(amount, n, rn - 1))
+                            .as("amount=%d n=%d rn=%d", amount, n, rn)
+                            .isEqualTo(sqlShare);
+                }
+            }
+        }
+    }
+
+    @Test
+    void sharesAddUpToTheAmount() {
+        for (int amount = 0; amount <= 500; amount += 7) {
+            for (int n = 1; n <= 9; n++) {
+                long sum = 0;
+                for (int i = 0; i < n; i++) sum += LoanStatsService.split(amount, n, i);
+                assertThat(sum).as("amount=%d n=%d", amount, n).isEqualTo(amount);
+            }
+        }
+    }
+
+    @Test
+    void firstLinesGetTheRemainder() {
+        // 10 over 3 lines: 4, 3, 3
+        assertThat(LoanStatsService.split(10, 3, 0)).isEqualTo(4);
+        assertThat(LoanStatsService.split(10, 3, 1)).isEqualTo(3);
+        assertThat(LoanStatsService.split(10, 3, 2)).isEqualTo(3);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.clients.SettingClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SettingsCacheTest {
+
+    private SettingClient settingClient;
+    private SettingsCache cache;
+
+    @BeforeEach
+    void setUp() {
+        settingClient = mock(SettingClient.class);
+        cache = new SettingsCache(settingClient);
+        ReflectionTestUtils.setField(cache, "ttlMs", 60_000L);
+        ReflectionTestUtils.setField(cache, "maxStalenessMs", 300_000L);
+    }
+
+    @Test
+    void firstReadLoadsTheSnapshot() {
+        when(settingClient.fetchSnapshot(null)).thenReturn(snapshot("\"1\"", 3000));
+
+        assertThat(cache.getDailyRate()).isEqualTo(3000);
+        assertThat(cache.getRepairCost("Taladro")).isEqualTo(15000);
+        assertThat(cache.getRepairCost("Otra")).isZero();
+    }
+
+    @Test
+    void freshSnapshotIsServedWithoutCallingSettingService() {
+        when(settingClient.fetchSnapshot(null)).thenReturn(snapshot("\"1\"", 3000));
+
+        cache.getDailyRate();
+        cache.getFinePerDay();
+        cache.getMaxActiveLoans();
+
+        verify(settingClient, times(1)).fetchSnapshot(any());
+    }
+
+    @Test
+    void noSnapshotAndSettingServiceDownFails() {
+        when(settingClient.fetchSnapshot(null)).thenReturn(null);
+
+        assertThatThrownBy(() -> cache.getDailyRate()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void pastTtlServesTheOldValueAndRefreshesInTheBackground() throws InterruptedException {
+        when(settingClient.fetchSnapshot(null)).thenReturn(snapshot("\"1\"", 3000));
+        when(settingClient.fetchSnapshot("\"1\"")).thenReturn(snapshot("\"2\"", 3500));
+        cache.getDailyRate();
+
+        ReflectionTestUtils.setField(cache, "ttlMs", -1L);
+        assertThat(cache.getDailyRate()).isEqualTo(3000);
+        ReflectionTestUtils.setField(cache, "ttlMs", 60_000L);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (cache.getDailyRate() != 3500 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertThat(cache.getDailyRate()).isEqualTo(3500);
+        verify(settingClient, times(1)).fetchSnapshot("\"1\"");
+    }
+
+    @Test
+    void pastMaxStalenessReloadsBeforeAnswering() {
+        when(settingClient.fetchSnapshot(null)).thenReturn(snapshot("\"1\"", 3000));
+        when(settingClient.fetchSnapshot("\"1\"")).thenReturn(snapshot("\"2\"", 4000));
+        cache.getDailyRate();
+
+        ReflectionTestUtils.setField(cache, "maxStalenessMs", -1L);
+        assertThat(cache.getDailyRate()).isEqualTo(4000);
+    }
+
+    @Test
+    void notModifiedKeepsTheValuesAndRenewsThem() {
+        when(settingClient.fetchSnapshot(null)).thenReturn(snapshot("\"1\"", 3000));
+        when(settingClient.fetchSnapshot("\"1\"")).thenReturn(ResponseEntity.status(HttpStatus.NOT_MODIFIED).build());
+        cache.getDailyRate();
+
+        ReflectionTestUtils.setField(cache, "maxStalenessMs", -1L);
+        assertThat(cache.getDailyRate()).isEqualTo(3000);
+
+        // renewed: fresh again once the bound is back
+        ReflectionTestUtils.setField(cache, "maxStalenessMs", 300_000L);
+        assertThat(cache.getDailyRate()).isEqualTo(3000);
+        verify(settingClient, times(1)).fetchSnapshot(eq("\"1\""));
+    }
+
+    @Test
+    void pastMaxStalenessAndSettingServiceDownFailsInsteadOfServingOldValues() {
+        when(settingClient.fetchSnapshot(null)).thenReturn(snapshot("\"1\"", 3000));
+        when(settingClient.fetchSnapshot("\"1\"")).thenReturn(null);
+        cache.getDailyRate();
+
+        ReflectionTestUtils.setField(cache, "maxStalenessMs", -1L);
+        assertThatThrownBy(() -> cache.getDailyRate())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("unavailable");
+
+        // back within the bound: the last snapshot is still there
+        ReflectionTestUtils.setField(cache, "maxStalenessMs", 300_000L);
+        assertThat(cache.getDailyRate()).isEqualTo(3000);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private ResponseEntity<Map> snapshot(String etag, int dailyRate) {
+        Map body = Map.of(
+                "dailyRentPrice", dailyRate,
+                "finePerDay", 1000,
+                "maxActiveLoans", 5,
+                "repairCosts", Map.of("Taladro", 15000)
+        );
+        return ResponseEntity.ok().eTag(etag).body(body);
+    }
+}
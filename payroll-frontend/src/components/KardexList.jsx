@@ -3,7 +3,7 @@ import {
   Box, Paper, Stack, TextField, Button, Typography, Table, TableHead, TableRow,
   TableCell, TableBody, TableFooter, IconButton, Alert
 } from "@mui/material";
-import { getKardex } from "../services/kardex.service";
+import { streamKardex } from "../services/kardex.service";
 import { getMe } from "../services/auth.service";
 import ChevronLeftIcon from "@mui/icons-material/ChevronLeft";
 import ChevronRightIcon from "@mui/icons-material/ChevronRight";
@@ -15,8 +15,9 @@ export default function KardexList() {
   const [rows, setRows] = useState([]);
   const [page, setPage] = useState(0);
   const [size, setSize] = useState(12);
-  const [totalPages, setTotalPages] = useState(0);
-  const [totalElements, setTotalElements] = useState(0);
+  // cursors[i] = token para cargar la página i (la 0 no lleva cursor)
+  const [cursors, setCursors] = useState([null]);
+  const [hasNext, setHasNext] = useState(false);
   const [err, setErr] = useState("");
 
   // filtros
@@ -28,12 +29,12 @@ export default function KardexList() {
   const [start, setStart] = useState(""); // YYYY-MM-DD
   const [end, setEnd] = useState("");
 
-  const load = async (p = page) => {
+  const load = async (p = page, known = cursors) => {
     try {
       const u = me || await getMe();
       if (!me) setMe(u);
 
-      const resp = await getKardex({
+      const resp = await streamKardex({
         toolId: toolId || undefined,
         rutUser: rutUser || undefined,
         type: type || undefined,
@@ -41,14 +42,16 @@ export default function KardexList() {
         category: category || undefined,
         start: start || undefined,
         end: end || undefined,
-        page: p,
+        after: known[p] || undefined,
         size,
-        sort: "movementDate,desc"
+        direction: "desc"
       });
       setRows(resp.content || []);
-      setTotalPages(resp.totalPages || 0);
-      setTotalElements(resp.totalElements || 0);
-      setPage(resp.number || 0);
+      setHasNext(!!resp.hasNext);
+      const next = known.slice(0, p + 1);
+      if (resp.next) next[p + 1] = resp.next;
+      setCursors(next);
+      setPage(p);
       setErr("");
     } catch (e) {
       setErr(e?.response?.data || e.message);
@@ -56,13 +59,13 @@ export default function KardexList() {
   };
 
   useEffect(() => {
-    load(0);
+    load(0, [null]);
     // eslint-disable-next-line react-hooks/exhaustive-deps
   }, [size]); // si cambias tamaño, refresca
 
   const onSearch = (e) => {
     e.preventDefault();
-    load(0);
+    load(0, [null]);
   };
 
   return (
@@ -129,11 +132,11 @@ export default function KardexList() {
               <TableCell colSpan={7}>
                 <Box sx={{ display:"flex", alignItems:"center", justifyContent:"space-between" }}>
                   <Typography variant="body2">
-                    Página {page+1} de {Math.max(totalPages,1)} — {totalElements} movimientos
+                    Página {page+1}
                   </Typography>
                   <Box>
                     <IconButton disabled={page<=0} onClick={()=>load(page-1)}><ChevronLeftIcon/></IconButton>
-                    <IconButton disabled={page>=totalPages-1} onClick={()=>load(page+1)}><ChevronRightIcon/></IconButton>
+                    <IconButton disabled={!hasNext} onClick={()=>load(page+1)}><ChevronRightIcon/></IconButton>
                   </Box>
                 </Box>
               </TableCell>
@@ -3,3 +3,8 @@ import api from "./api";
 export function getKardex(params = {}) {
   return api.get("/kardex", { params }).then(r => r.data); 
 }
+
+// scroll por cursor (sin count): params.after = "next" de la respuesta anterior
+export function streamKardex(params = {}) {
+  return api.get("/kardex/stream", { params }).then(r => r.data);
+}
@@ -0,0 +1,28 @@
+package com.example.reportservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class EnrichmentConfig {
+
+    // Shared pool for report enrichment lookups (client/inventory).
+    // Tasks inherit the caller's SecurityContext, so RestTemplateConfig's interceptor still finds the JWT.
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService enrichmentExecutor(@Value("${reports.enrichment.pool-size:32}") int poolSize) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory tf = r -> {
+            Thread t = new Thread(r, "report-enrich-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return new DelegatingSecurityContextExecutorService(Executors.newFixedThreadPool(poolSize, tf));
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.reportservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class ReportJobConfig {
+
+    // Bounded pool for async report jobs: pool-size workers, queue-capacity waiting, the rest rejected
+    // (ReportJobService answers 503). Jobs do NOT inherit the submitter's SecurityContext: its JWT can
+    // expire while the job waits or runs, so calls to loan/client/inventory use report-service's
+    // own token (ServiceCredentials) instead.
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService reportJobExecutor(
+            @Value("${reports.jobs.pool-size:4}") int poolSize,
+            @Value("${reports.jobs.queue-capacity:50}") int queueCapacity
+    ) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory tf = r -> {
+            Thread t = new Thread(r, "report-job-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), tf, new ThreadPoolExecutor.AbortPolicy());
+        return pool;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.reportservice.config;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.HttpHost;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-downstream pool limits (http.client.routes.<service-id>: n, per instance of that service).
+// The load balancer has already replaced the service id with an instance host:port here, so the
+// first time a route shows up its instance is looked up in discovery; routes of services without an
+// entry keep http.client.max-per-route.
+class RouteLimitedRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final DiscoveryClient discoveryClient;
+    private final Map<String, Integer> limits;
+    private final Set<HttpRoute> applied = ConcurrentHashMap.newKeySet();
+
+    RouteLimitedRequestFactory(CloseableHttpClient httpClient,
+                               PoolingHttpClientConnectionManager connectionManager,
+                               DiscoveryClient discoveryClient,
+                               Map<String, Integer> limits) {
+        super(httpClient);
+        this.connectionManager = connectionManager;
+        this.discoveryClient = discoveryClient;
+        this.limits = Map.copyOf(limits);
+    }
+
+    @Override
+    protected ClassicHttpRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+        // same key as the pool's route planner: default port filled in, secure for https
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = (uri.getPort() != -1) ? uri.getPort() : (secure ? 443 : 80);
+        HttpRoute route = new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port), null, secure);
+        if (!applied.contains(route)) {
+            // not marked when unmatched: an instance may reach the local registry a bit later
+            String serviceId = serviceOf(uri.getHost(), port);
+            Integer limit = (serviceId == null) ? null : limits.get(serviceId);
+            if (limit != null) {
+                connectionManager.setMaxPerRoute(route, limit);
+                applied.add(route);
+            }
+        }
+        return super.createHttpUriRequest(httpMethod, uri);
+    }
+
+    // configured service with a registered instance at host:port (discovery client's local cache)
+    private String serviceOf(String host, int port) {
+        for (String serviceId : limits.keySet()) {
+            for (ServiceInstance instance : discoveryClient.getInstances(serviceId)) {
+                if (instance.getPort() == port && instance.getHost().equalsIgnoreCase(host)) return serviceId;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.reportservice.config;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+
+// Access token of report-service's own Keycloak client (client-credentials grant), for calls made
+// without a user request behind them (async report jobs): a queued job may start after the
+// submitter's JWT expired. The client's service account needs the ADMIN realm role.
+// Cached until shortly before it expires.
+@Component
+public class ServiceCredentials {
+
+    private static final long EXPIRY_MARGIN_MS = 30_000;
+
+    private final RestTemplate tokenClient;
+
+    @Value("${reports.service-client.token-uri:${spring.security.oauth2.resourceserver.jwt.issuer-uri}/protocol/openid-connect/token}")
+    private String tokenUri;
+
+    @Value("${reports.service-client.client-id:}")
+    private String clientId;
+
+    @Value("${reports.service-client.client-secret:}")
+    private String clientSecret;
+
+    private String token;
+    private long expiresAt;
+
+    // plain (not @LoadBalanced) client: Keycloak is not registered in Eureka
+    public ServiceCredentials(CloseableHttpClient httpClient) {
+        this.tokenClient = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    public synchronized String accessToken() {
+        if (token != null && System.currentTimeMillis() < expiresAt - EXPIRY_MARGIN_MS) return token;
+        if (clientId.isBlank() || clientSecret.isBlank())
+            throw new IllegalStateException("Service credentials are not configured (reports.service-client.*)");
+
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("grant_type", "client_credentials");
+        form.add("client_id", clientId);
+        form.add("client_secret", clientSecret);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        Map<?, ?> resp;
+        try {
+            resp = tokenClient.postForObject(tokenUri, new HttpEntity<>(form, headers), Map.class);
+        } catch (RestClientException ex) {
+            throw new IllegalStateException("Could not obtain a service token: " + ex.getMessage());
+        }
+        if (resp == null || !(resp.get("access_token") instanceof String value))
+            throw new IllegalStateException("Could not obtain a service token");
+
+        long ttlSeconds = (resp.get("expires_in") instanceof Number n) ? n.longValue() : 60;
+        token = value;
+        expiresAt = System.currentTimeMillis() + ttlSeconds * 1000;
+        return token;
+    }
+}
@@ -1,40 +1,65 @@
 package com.example.reportservice.controllers;
 
-import com.example.reportservice.services.ReportService;
+import com.example.reportservice.entities.ReportRunEntity;
+import com.example.reportservice.services.ReportJobService;
+import com.example.reportservice.services.ReportMaterializer;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
+// Reports are served from their materialization (ReportMaterializer); staleness goes in headers:
+// X-Report-Source (cache|incremental|full), X-Report-Stale, X-Report-Computed-At,
+// X-Report-Refreshed-At and Age (seconds since the last refresh). refresh=true skips the
+// freshness window (still incremental).
 @RestController
 @RequestMapping("/reports")
-@CrossOrigin("*")
+@CrossOrigin(origins = "*", exposedHeaders = {
+        "X-Report-Source", "X-Report-Stale", "X-Report-Computed-At", "X-Report-Refreshed-At", "Age"})
 @RequiredArgsConstructor
 public class ReportController {
 
-    private final ReportService reportService;
+    private final ReportMaterializer reportMaterializer;
+    private final ReportJobService reportJobService;
 
     @PreAuthorize("hasAnyRole('ADMIN')")
     @GetMapping("/active-loans")
     public ResponseEntity<List<Map<String, Object>>> activeLoans(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(defaultValue = "false") boolean refresh,
+            Authentication auth
     ) {
-        return ResponseEntity.ok(reportService.activeLoans(start, end));
+        return respond(reportMaterializer.activeLoans(start, end, auth.getName(), refresh));
     }
 
     @PreAuthorize("hasAnyRole('ADMIN')")
     @GetMapping("/overdue-clients")
     public ResponseEntity<List<Map<String, Object>>> overdueClients(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(defaultValue = "false") boolean refresh,
+            Authentication auth
     ) {
-        return ResponseEntity.ok(reportService.overdueClients(start, end));
+        return respond(reportMaterializer.overdueClients(start, end, auth.getName(), refresh));
     }
 
     @PreAuthorize("hasAnyRole('ADMIN')")
@@ -42,8 +67,106 @@ public class ReportController {
     public ResponseEntity<List<Map<String, Object>>> topTools(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
-            @RequestParam(defaultValue = "10") int limit
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "false") boolean refresh,
+            Authentication auth
+    ) {
+        return respond(reportMaterializer.topTools(start, end, limit, auth.getName(), refresh));
+    }
+
+    // =========================
+    // Async jobs (wide ranges that would outlive the gateway timeout)
+    // =========================
+    // 202 + Location of the job; same report/params while one is still running -> that same job
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @PostMapping("/{name}/jobs")
+    public ResponseEntity<?> submitJob(
+            @PathVariable String name,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+            @RequestParam(required = false) Integer limit,
+            Authentication auth
+    ) {
+        try {
+            ReportRunEntity job = reportJobService.submit(name, start, end, limit, auth.getName());
+            return ResponseEntity.accepted()
+                    .location(URI.create("/reports/jobs/" + job.getId()))
+                    .body(jobView(job));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(jobView(reportJobService.get(id)));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    // streamed from the job's file on disk; 409 while not DONE, 410 once purged
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @GetMapping("/jobs/{id}/result")
+    public ResponseEntity<?> getJobResult(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "json") String format
     ) {
-        return ResponseEntity.ok(reportService.topTools(start, end, limit));
+        String fmt = format.toLowerCase();
+        if (!fmt.equals("json") && !fmt.equals("csv")) return ResponseEntity.badRequest().body("format must be json or csv");
+
+        ReportRunEntity job;
+        try {
+            job = reportJobService.get(id);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+        if (!ReportJobService.DONE.equals(job.getStatus())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(jobView(job));
+        }
+
+        Path file = reportJobService.resultFile(job, fmt);
+        if (file == null) return ResponseEntity.status(HttpStatus.GONE).body("Result is no longer available");
+
+        Resource body = new FileSystemResource(file);
+        return ResponseEntity.ok()
+                .contentType(fmt.equals("csv") ? new MediaType("text", "csv") : MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(job.getReportName() + "-" + job.getId() + "." + fmt).build().toString())
+                .body(body);
+    }
+
+    private Map<String, Object> jobView(ReportRunEntity job) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", job.getId());
+        m.put("report", job.getReportName());
+        m.put("params", job.getParamsJson());
+        m.put("status", job.getStatus());
+        m.put("progress", job.getProgress());
+        m.put("rowCount", job.getRowCount());
+        m.put("error", job.getError());
+        m.put("submittedAt", job.getExecutedAt());
+        m.put("startedAt", job.getStartedAt());
+        m.put("finishedAt", job.getFinishedAt());
+        if (ReportJobService.DONE.equals(job.getStatus())) {
+            m.put("result", "/reports/jobs/" + job.getId() + "/result?format=json");
+            m.put("resultCsv", "/reports/jobs/" + job.getId() + "/result?format=csv");
+        }
+        return m;
+    }
+
+    private ResponseEntity<List<Map<String, Object>>> respond(ReportMaterializer.Result r) {
+        long age = Math.max(0, Duration.between(r.refreshedAt(), LocalDateTime.now()).getSeconds());
+        return ResponseEntity.ok()
+                .header("X-Report-Source", r.source())
+                .header("X-Report-Stale", String.valueOf(r.stale()))
+                .header("X-Report-Computed-At", String.valueOf(r.computedAt()))
+                .header("X-Report-Refreshed-At", String.valueOf(r.refreshedAt()))
+                .header(HttpHeaders.AGE, String.valueOf(age))
+                .body(r.rows());
     }
 }
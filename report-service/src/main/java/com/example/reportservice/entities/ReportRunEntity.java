@@ -5,8 +5,14 @@ import lombok.*;
 
 import java.time.LocalDateTime;
 
+// Two kinds of rows:
+// - materialized report, one per (reportName, paramsKey): the last result plus the loan-service
+//   change cursor it is up to date with (ReportMaterializer)
+// - async job (status != null, paramsKey null): progress of one POST /reports/{name}/jobs and where
+//   its result files are (ReportJobService)
 @Entity
-@Table(name = "report_run")
+@Table(name = "report_run", uniqueConstraints = @UniqueConstraint(
+        name = "uk_report_run_params", columnNames = {"report_name", "params_key"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,6 +25,7 @@ public class ReportRunEntity {
     @Column(nullable = false, length = 80)
     private String reportName; // "active-loans", "overdue-clients", "top-tools"
 
+    // last time the result was brought up to date (full or incremental); jobs: submitted at
     @Column(nullable = false)
     private LocalDateTime executedAt;
 
@@ -27,4 +34,46 @@ public class ReportRunEntity {
 
     @Column(columnDefinition = "text")
     private String paramsJson; // filtros (start/end/limit) como string
+
+    // normalized params ("start=2025-01-01&end=*&limit=10"), materialization key
+    @Column(name = "params_key", length = 200)
+    private String paramsKey;
+
+    @Column(columnDefinition = "text")
+    private String resultJson;
+
+    // loan-service change cursor the result reflects ("<xid>:<seq>")
+    @Column(length = 60)
+    private String changeCursor;
+
+    // last full computation
+    private LocalDateTime computedAt;
+
+    // =========================
+    // Async jobs
+    // =========================
+    @Column(length = 20)
+    private String status; // QUEUED, RUNNING, DONE, FAILED
+
+    // reportName + "?" + normalized params; at most one QUEUED/RUNNING job per key (partial unique index)
+    @Column(name = "job_key", length = 300)
+    private String jobKey;
+
+    private Integer progress; // 0..100
+
+    private Integer rowCount;
+
+    @Column(length = 500)
+    private String error;
+
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+
+    // result files without extension (<path>.json / <path>.csv)
+    @Column(length = 500)
+    private String resultPath;
+
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    private long version;
 }
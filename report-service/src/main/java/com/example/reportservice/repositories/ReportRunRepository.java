@@ -3,4 +3,17 @@ package com.example.reportservice.repositories;
 import com.example.reportservice.entities.ReportRunEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
 
-public interface ReportRunRepository extends JpaRepository<ReportRunEntity, Long> { }
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface ReportRunRepository extends JpaRepository<ReportRunEntity, Long> {
+
+    Optional<ReportRunEntity> findByReportNameAndParamsKey(String reportName, String paramsKey);
+
+    // async jobs
+    Optional<ReportRunEntity> findFirstByJobKeyAndStatusInOrderByIdDesc(String jobKey, Collection<String> statuses);
+
+    List<ReportRunEntity> findByStatusInAndFinishedAtBefore(Collection<String> statuses, LocalDateTime before);
+}
@@ -0,0 +1,68 @@
+package com.example.reportservice.services;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+// Runs one lookup per key concurrently, at most `perReportConcurrency` in flight per call,
+// and gives up on whatever is still pending when the deadline passes (missing keys = not enriched).
+@Component
+public class ParallelEnricher {
+
+    private final ExecutorService executor;
+
+    @Value("${reports.enrichment.per-report-concurrency:8}")
+    private int perReportConcurrency;
+
+    @Value("${reports.enrichment.deadline-ms:3000}")
+    private long deadlineMs;
+
+    public ParallelEnricher(@Qualifier("enrichmentExecutor") ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public <K, V> Map<K, V> fetchAll(Collection<K> keys, Function<K, V> lookup) {
+        Map<K, V> out = new ConcurrentHashMap<>();
+        if (keys.isEmpty()) return out;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        Semaphore permits = new Semaphore(Math.max(1, perReportConcurrency));
+        List<Future<?>> futures = new ArrayList<>(keys.size());
+
+        try {
+            for (K key : new LinkedHashSet<>(keys)) {
+                if (!permits.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS)) break;
+                futures.add(executor.submit(() -> {
+                    try {
+                        V v = lookup.apply(key);
+                        if (v != null) out.put(key, v);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get(remaining(deadline), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException ignored) {
+                    // a failed lookup only leaves that row without enrichment
+                }
+            }
+        } catch (TimeoutException ex) {
+            // deadline reached: return what we have
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<?> f : futures) f.cancel(true);
+        }
+        return out;
+    }
+
+    private long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.reportservice.services;
+
+import com.example.reportservice.entities.ReportRunEntity;
+import com.example.reportservice.repositories.ReportRunRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+// Async report jobs: POST /reports/{name}/jobs queues the report on a bounded pool, the job row in
+// report_run tracks status/progress, and the result is written once to local disk as JSON and CSV
+// (served as files by GET /reports/jobs/{id}/result). The same report + params while a job is still
+// QUEUED/RUNNING returns that job instead of starting another one.
+@Service
+public class ReportJobService {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    private static final List<String> ACTIVE = List.of(QUEUED, RUNNING);
+    private static final List<String> FINISHED = List.of(DONE, FAILED);
+    private static final Set<String> REPORTS = Set.of(
+            ReportMaterializer.ACTIVE_LOANS, ReportMaterializer.OVERDUE_CLIENTS, ReportMaterializer.TOP_TOOLS);
+
+    private final ReportRunRepository runRepository;
+    private final ReportMaterializer reportMaterializer;
+    private final JdbcTemplate jdbcTemplate;
+    private final JsonMapper jsonMapper;
+    private final ExecutorService executor;
+
+    @Value("${reports.jobs.dir:./report-jobs}")
+    private String jobsDir;
+
+    // a QUEUED/RUNNING job not finished after this long is considered lost (instance restarted)
+    @Value("${reports.jobs.stale-after-ms:1800000}")
+    private long staleAfterMs;
+
+    @Value("${reports.jobs.retention-ms:86400000}")
+    private long retentionMs;
+
+    @Value("${reports.top-tools-default-limit:10}")
+    private int defaultLimit;
+
+    public ReportJobService(
+            ReportRunRepository runRepository,
+            ReportMaterializer reportMaterializer,
+            JdbcTemplate jdbcTemplate,
+            JsonMapper jsonMapper,
+            @Qualifier("reportJobExecutor") ExecutorService executor
+    ) {
+        this.runRepository = runRepository;
+        this.reportMaterializer = reportMaterializer;
+        this.jdbcTemplate = jdbcTemplate;
+        this.jsonMapper = jsonMapper;
+        this.executor = executor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexes() {
+        try {
+            jdbcTemplate.execute("""
+                    create unique index if not exists ux_report_run_active_job
+                    on report_run (job_key) where status in ('QUEUED', 'RUNNING')
+                    """);
+        } catch (Exception ignored) {
+            // without it concurrent submits may (rarely) start two jobs; the lookup still dedupes the rest
+        }
+    }
+
+    // =========================
+    // Submit / status
+    // =========================
+    public ReportRunEntity submit(String reportName, LocalDate start, LocalDate end, Integer limit, String requestedBy) {
+        if (!REPORTS.contains(reportName)) throw new IllegalArgumentException("Unknown report: " + reportName);
+        if (start != null && end != null && end.isBefore(start))
+            throw new IllegalArgumentException("end must be on or after start");
+
+        Integer top = ReportMaterializer.TOP_TOOLS.equals(reportName)
+                ? Math.max(1, (limit == null) ? defaultLimit : limit)
+                : null;
+        Map<String, Object> params = ReportMaterializer.params(start, end, top);
+        String jobKey = reportName + "?" + ReportMaterializer.paramsKey(params);
+
+        ReportRunEntity active = findActive(jobKey);
+        if (active != null) return active;
+
+        ReportRunEntity job = new ReportRunEntity();
+        job.setReportName(reportName);
+        job.setRequestedBy((requestedBy == null || requestedBy.isBlank()) ? "unknown"
+                : requestedBy.substring(0, Math.min(requestedBy.length(), 200)));
+        job.setParamsJson(jsonMapper.writeValueAsString(params));
+        job.setJobKey(jobKey);
+        job.setStatus(QUEUED);
+        job.setProgress(0);
+        job.setExecutedAt(LocalDateTime.now());
+        try {
+            job = runRepository.saveAndFlush(job);
+        } catch (DataIntegrityViolationException ex) {
+            // same params submitted at the same time: the other insert won
+            ReportRunEntity winner = findActive(jobKey);
+            if (winner != null) return winner;
+            throw ex;
+        }
+
+        Long id = job.getId();
+        String by = job.getRequestedBy();
+        try {
+            executor.execute(() -> run(id, reportName, start, end, top, by));
+        } catch (RejectedExecutionException ex) {
+            finish(id, FAILED, null, null, "Report queue is full");
+            throw new IllegalStateException("Report queue is full, try again later.");
+        }
+        return job;
+    }
+
+    public ReportRunEntity get(Long id) {
+        ReportRunEntity job = runRepository.findById(id)
+                .filter(r -> r.getStatus() != null)
+                .orElseThrow(() -> new NoSuchElementException("Job not found: " + id));
+        if (isStale(job)) {
+            finish(id, FAILED, null, null, "Job was interrupted");
+            return runRepository.findById(id).orElse(job);
+        }
+        return job;
+    }
+
+    // result file of a finished job; null when the job has no result (yet, or purged)
+    public Path resultFile(ReportRunEntity job, String format) {
+        if (!DONE.equals(job.getStatus()) || job.getResultPath() == null) return null;
+        Path file = Paths.get(job.getResultPath() + "." + format);
+        return Files.isReadable(file) ? file : null;
+    }
+
+    // =========================
+    // Execution
+    // =========================
+    private void run(Long id, String reportName, LocalDate start, LocalDate end, Integer top, String requestedBy) {
+        try {
+            update(id, job -> {
+                job.setStatus(RUNNING);
+                job.setStartedAt(LocalDateTime.now());
+                job.setProgress(10);
+            });
+
+            ReportMaterializer.Result result = switch (reportName) {
+                case ReportMaterializer.ACTIVE_LOANS -> reportMaterializer.activeLoans(start, end, requestedBy, false);
+                case ReportMaterializer.OVERDUE_CLIENTS -> reportMaterializer.overdueClients(start, end, requestedBy, false);
+                default -> reportMaterializer.topTools(start, end, top, requestedBy, false);
+            };
+            List<Map<String, Object>> rows = result.rows();
+            update(id, job -> job.setProgress(60));
+
+            Path dir = Paths.get(jobsDir);
+            Files.createDirectories(dir);
+            Path base = dir.resolve("report-job-" + id).toAbsolutePath();
+
+            writeAtomically(Paths.get(base + ".json"), out -> jsonMapper.writeValue(out, rows));
+            update(id, job -> job.setProgress(80));
+            writeAtomically(Paths.get(base + ".csv"), out -> writeCsv(rows, out));
+
+            finish(id, DONE, base.toString(), rows.size(), null);
+        } catch (Exception ex) {
+            String msg = (ex.getMessage() == null) ? ex.getClass().getSimpleName() : ex.getMessage();
+            finish(id, FAILED, null, null, msg.length() > 500 ? msg.substring(0, 500) : msg);
+        }
+    }
+
+    private void finish(Long id, String status, String resultPath, Integer rowCount, String error) {
+        update(id, job -> {
+            job.setStatus(status);
+            job.setProgress(DONE.equals(status) ? 100 : job.getProgress());
+            job.setResultPath(resultPath);
+            job.setRowCount(rowCount);
+            job.setError(error);
+            job.setFinishedAt(LocalDateTime.now());
+        });
+    }
+
+    private void update(Long id, Consumer<ReportRunEntity> change) {
+        runRepository.findById(id).ifPresent(job -> {
+            change.accept(job);
+            runRepository.saveAndFlush(job);
+        });
+    }
+
+    // =========================
+    // Housekeeping
+    // =========================
+    // finished jobs older than retention-ms: files and row go away
+    @Scheduled(fixedDelayString = "${reports.jobs.purge-ms:3600000}")
+    public void purgeExpired() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retentionMs, ChronoUnit.MILLIS);
+        for (ReportRunEntity job : runRepository.findByStatusInAndFinishedAtBefore(FINISHED, cutoff)) {
+            try {
+                if (job.getResultPath() != null) {
+                    Files.deleteIfExists(Paths.get(job.getResultPath() + ".json"));
+                    Files.deleteIfExists(Paths.get(job.getResultPath() + ".csv"));
+                }
+                runRepository.delete(job);
+            } catch (Exception ignored) {
+                // se reintenta en la próxima pasada
+            }
+        }
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    private ReportRunEntity findActive(String jobKey) {
+        ReportRunEntity job = runRepository.findFirstByJobKeyAndStatusInOrderByIdDesc(jobKey, ACTIVE).orElse(null);
+        if (job != null && isStale(job)) {
+            finish(job.getId(), FAILED, null, null, "Job was interrupted");
+            return null;
+        }
+        return job;
+    }
+
+    private boolean isStale(ReportRunEntity job) {
+        if (job.getStatus() == null || !ACTIVE.contains(job.getStatus())) return false;
+        LocalDateTime since = (job.getStartedAt() != null) ? job.getStartedAt() : job.getExecutedAt();
+        return since.isBefore(LocalDateTime.now().minus(staleAfterMs, ChronoUnit.MILLIS));
+    }
+
+    private interface FileBody {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // <file>.part then rename: a half-written file is never served
+    private void writeAtomically(Path file, FileBody body) throws IOException {
+        Path part = Paths.get(file + ".part");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part))) {
+            body.write(out);
+        }
+        Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Nested objects flatten to dotted columns (client.name, tool.category); lists stay as JSON text
+    private void writeCsv(List<Map<String, Object>> rows, OutputStream raw) throws IOException {
+        List<Map<String, Object>> flat = new ArrayList<>(rows.size());
+        LinkedHashSet<String> columns = new LinkedHashSet<>();
+        for (Map<String, Object> r : rows) {
+            Map<String, Object> f = new LinkedHashMap<>();
+            flatten("", r, f);
+            columns.addAll(f.keySet());
+            flat.add(f);
+        }
+
+        Writer out = new OutputStreamWriter(raw, StandardCharsets.UTF_8);
+        out.write(String.join(",", columns.stream().map(this::csv).toList()));
+        out.write("\r\n");
+        for (Map<String, Object> f : flat) {
+            StringJoiner line = new StringJoiner(",");
+            for (String c : columns) {
+                Object v = f.get(c);
+                line.add(csv((v == null) ? "" : v.toString()));
+            }
+            out.write(line.toString());
+            out.write("\r\n");
+        }
+        out.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flatten(String prefix, Map<String, Object> in, Map<String, Object> out) {
+        for (Map.Entry<String, Object> e : in.entrySet()) {
+            String key = prefix + e.getKey();
+            Object v = e.getValue();
+            if (v instanceof Map<?, ?> m) flatten(key + ".", (Map<String, Object>) m, out);
+            else if (v instanceof Collection<?>) out.put(key, jsonMapper.writeValueAsString(v));
+            else out.put(key, v);
+        }
+    }
+
+    private String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
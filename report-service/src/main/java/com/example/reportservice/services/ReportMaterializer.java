@@ -0,0 +1,282 @@
+package com.example.reportservice.services;
+
+import com.example.reportservice.entities.ReportRunEntity;
+import com.example.reportservice.repositories.ReportRunRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+// Materialized reports (report_run): one stored result per report + normalized params.
+// - fresh (younger than fresh-ms): served as is, no call to loan-service
+// - otherwise brought up to date from loan-service's change cursor (/loan/reports/changes):
+//   active-loans merges the changed loans row by row; the aggregates (overdue-clients, top-tools)
+//   are re-aggregated in loan-service only when a change falls in their date range, reusing the
+//   client/tool enrichment already stored
+// - full recomputation only without a usable result, every full-refresh-ms, or when the backlog of
+//   changes is too long
+// If loan-service is down, the last stored result is served flagged as stale.
+@Service
+@RequiredArgsConstructor
+public class ReportMaterializer {
+
+    public static final String ACTIVE_LOANS = "active-loans";
+    public static final String OVERDUE_CLIENTS = "overdue-clients";
+    public static final String TOP_TOOLS = "top-tools";
+
+    // loan-service's LoanChangeFeed.ORIGIN
+    private static final String LOAN_FEED_ORIGIN = "0:0";
+
+    private static final TypeReference<List<Map<String, Object>>> ROWS = new TypeReference<>() {};
+
+    private final ReportService reportService;
+    private final ReportRunRepository runRepository;
+    private final JsonMapper jsonMapper;
+
+    @Value("${reports.materialization.fresh-ms:60000}")
+    private long freshMs;
+
+    @Value("${reports.materialization.full-refresh-ms:86400000}")
+    private long fullRefreshMs;
+
+    @Value("${reports.materialization.change-page-size:500}")
+    private int changePageSize;
+
+    @Value("${reports.materialization.max-change-pages:20}")
+    private int maxChangePages;
+
+    // source: "cache" (stored result), "incremental" (cursor catch-up) or "full"
+    public record Result(
+            List<Map<String, Object>> rows,
+            String source,
+            boolean stale,
+            LocalDateTime computedAt,
+            LocalDateTime refreshedAt
+    ) {}
+
+    // =========================
+    // Reports
+    // =========================
+    public Result activeLoans(LocalDate start, LocalDate end, String requestedBy, boolean refresh) {
+        return serve(ACTIVE_LOANS, params(start, end, null), requestedBy, refresh,
+                () -> reportService.activeLoans(start, end),
+                (rows, changes) -> mergeActiveLoans(rows, changes, start, end));
+    }
+
+    public Result overdueClients(LocalDate start, LocalDate end, String requestedBy, boolean refresh) {
+        return serve(OVERDUE_CLIENTS, params(start, end, null), requestedBy, refresh,
+                () -> reportService.overdueClients(start, end),
+                (rows, changes) -> anyInRange(changes, start, end)
+                        ? reportService.overdueClients(start, end, knownClients(rows))
+                        : rows);
+    }
+
+    public Result topTools(LocalDate start, LocalDate end, int limit, String requestedBy, boolean refresh) {
+        int top = Math.max(1, limit);
+        return serve(TOP_TOOLS, params(start, end, top), requestedBy, refresh,
+                () -> reportService.topTools(start, end, top),
+                (rows, changes) -> anyInRange(changes, start, end)
+                        ? reportService.topTools(start, end, top, knownTools(rows))
+                        : rows);
+    }
+
+    // =========================
+    // Materialization
+    // =========================
+    private Result serve(
+            String reportName,
+            Map<String, Object> params,
+            String requestedBy,
+            boolean refresh,
+            Supplier<List<Map<String, Object>>> full,
+            BiFunction<List<Map<String, Object>>, List<Map<String, Object>>, List<Map<String, Object>>> incremental
+    ) {
+        String key = paramsKey(params);
+        ReportRunEntity run = runRepository.findByReportNameAndParamsKey(reportName, key).orElse(null);
+        LocalDateTime now = LocalDateTime.now();
+        boolean usable = run != null && run.getResultJson() != null;
+
+        if (usable && !refresh && run.getExecutedAt().isAfter(now.minus(freshMs, ChronoUnit.MILLIS))) {
+            return result(run, "cache", false);
+        }
+
+        // ORIGIN = no cursor yet (or loan-service has no change feed): nothing to catch up from
+        boolean needsFull = !usable || run.getChangeCursor() == null || LOAN_FEED_ORIGIN.equals(run.getChangeCursor())
+                || run.getComputedAt() == null
+                || run.getComputedAt().isBefore(now.minus(fullRefreshMs, ChronoUnit.MILLIS));
+
+        try {
+            if (!needsFull) {
+                List<Map<String, Object>> changes = new ArrayList<>();
+                String cursor = catchUp(run.getChangeCursor(), changes);
+                if (cursor != null) {
+                    List<Map<String, Object>> rows = jsonMapper.readValue(run.getResultJson(), ROWS);
+                    if (!changes.isEmpty()) rows = incremental.apply(rows, changes);
+                    return store(run, reportName, key, params, requestedBy, rows, cursor, run.getComputedAt(), now, "incremental");
+                }
+                // too far behind: one full read is cheaper than replaying the backlog
+            }
+
+            String cursor = reportService.loanChangeHead();  // before the read (changes meanwhile are replayed)
+            List<Map<String, Object>> rows = full.get();
+            return store(run, reportName, key, params, requestedBy, rows, cursor, now, now, "full");
+        } catch (IllegalStateException ex) {
+            if (usable) return result(run, "cache", true);
+            throw ex;
+        }
+    }
+
+    // Reads the change pages after the cursor into `changes`; null if there are more than max pages
+    private String catchUp(String cursor, List<Map<String, Object>> changes) {
+        String next = cursor;
+        for (int page = 0; page < maxChangePages; page++) {
+            ReportService.LoanChanges c = reportService.fetchLoanChanges(next, changePageSize);
+            changes.addAll(c.changes());
+            next = c.next();
+            if (!c.hasMore()) return next;
+        }
+        return null;
+    }
+
+    private Result store(
+            ReportRunEntity run,
+            String reportName,
+            String key,
+            Map<String, Object> params,
+            String requestedBy,
+            List<Map<String, Object>> rows,
+            String cursor,
+            LocalDateTime computedAt,
+            LocalDateTime refreshedAt,
+            String source
+    ) {
+        ReportRunEntity row = (run != null) ? run : new ReportRunEntity();
+        row.setReportName(reportName);
+        row.setParamsKey(key);
+        row.setParamsJson(jsonMapper.writeValueAsString(params));
+        row.setRequestedBy((requestedBy == null || requestedBy.isBlank()) ? "unknown" : truncate(requestedBy, 200));
+        row.setResultJson(jsonMapper.writeValueAsString(rows));
+        row.setChangeCursor(cursor);
+        row.setComputedAt(computedAt);
+        row.setExecutedAt(refreshedAt);
+        try {
+            runRepository.saveAndFlush(row);
+        } catch (ConcurrencyFailureException | DataIntegrityViolationException ignored) {
+            // another request refreshed the same report at the same time; its result is equivalent
+        }
+        return new Result(rows, source, false, computedAt, refreshedAt);
+    }
+
+    private Result result(ReportRunEntity run, String source, boolean stale) {
+        return new Result(jsonMapper.readValue(run.getResultJson(), ROWS), source, stale,
+                run.getComputedAt(), run.getExecutedAt());
+    }
+
+    // =========================
+    // Incremental steps
+    // =========================
+    // changed loans replace their previous row; returned / out-of-range ones drop out
+    private List<Map<String, Object>> mergeActiveLoans(
+            List<Map<String, Object>> rows,
+            List<Map<String, Object>> changes,
+            LocalDate start,
+            LocalDate end
+    ) {
+        Map<Long, Map<String, Object>> byId = new LinkedHashMap<>();
+        for (Map<String, Object> r : rows) byId.put(id(r), r);
+
+        for (Map<String, Object> loan : changes) {
+            Long id = id(loan);
+            byId.remove(id);
+            if (loan.get("lateReturnDate") == null && inRange(loan, start, end)) {
+                byId.put(id, reportService.activeLoanRow(loan));
+            }
+        }
+
+        // same order as loan-service's findActiveInRange (reservationDate desc)
+        List<Map<String, Object>> out = new ArrayList<>(byId.values());
+        out.sort(Comparator
+                .comparing((Map<String, Object> r) -> String.valueOf(r.get("reservationDate")), Comparator.reverseOrder())
+                .thenComparing(r -> id(r), Comparator.nullsLast(Comparator.reverseOrder())));
+        return out;
+    }
+
+    private boolean anyInRange(List<Map<String, Object>> changes, LocalDate start, LocalDate end) {
+        for (Map<String, Object> loan : changes) {
+            if (inRange(loan, start, end)) return true;
+        }
+        return false;
+    }
+
+    private boolean inRange(Map<String, Object> loan, LocalDate start, LocalDate end) {
+        if (start == null && end == null) return true;
+        Object raw = loan.get("reservationDate");
+        if (raw == null) return false;
+        try {
+            LocalDate d = LocalDate.parse(raw.toString());
+            return (start == null || !d.isBefore(start)) && (end == null || !d.isAfter(end));
+        } catch (DateTimeParseException e) {
+            return true;  // unknown format: treat as relevant
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, Object>> knownClients(List<Map<String, Object>> rows) {
+        Map<String, Map<String, Object>> out = new HashMap<>();
+        for (Map<String, Object> r : rows) {
+            if (r.get("rutUser") instanceof String rut && r.get("client") instanceof Map<?, ?> client) {
+                out.put(rut, (Map<String, Object>) client);
+            }
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, Map<String, Object>> knownTools(List<Map<String, Object>> rows) {
+        Map<Long, Map<String, Object>> out = new HashMap<>();
+        for (Map<String, Object> r : rows) {
+            if (r.get("toolId") instanceof Number toolId && r.get("tool") instanceof Map<?, ?> tool) {
+                out.put(toolId.longValue(), (Map<String, Object>) tool);
+            }
+        }
+        return out;
+    }
+
+    // =========================
+    // Helpers
+    // =========================
+    static Map<String, Object> params(LocalDate start, LocalDate end, Integer limit) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("start", (start == null) ? null : start.toString());
+        p.put("end", (end == null) ? null : end.toString());
+        if (limit != null) p.put("limit", limit);
+        return p;
+    }
+
+    // "start=2025-01-01&end=*&limit=10" (fixed order, * = not set)
+    static String paramsKey(Map<String, Object> params) {
+        StringJoiner key = new StringJoiner("&");
+        params.forEach((k, v) -> key.add(k + "=" + ((v == null) ? "*" : v)));
+        return key.toString();
+    }
+
+    private Long id(Map<String, Object> row) {
+        Object id = row.get("id");
+        return (id instanceof Number n) ? n.longValue() : null;
+    }
+
+    private String truncate(String value, int max) {
+        return (value.length() <= max) ? value : value.substring(0, max);
+    }
+}
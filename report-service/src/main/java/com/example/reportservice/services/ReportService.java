@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -15,6 +16,7 @@ import java.util.stream.Collectors;
 public class ReportService {
 
     private final RestTemplate restTemplate;
+    private final ParallelEnricher enricher;
 
     @Value("${services.loan.base-url:http://loan-service}")
     private String loanBaseUrl;
@@ -29,57 +31,51 @@ public class ReportService {
     // RF6.1: préstamos activos + estado (vigente/atrasado)
     // ----------------------------
     public List<Map<String, Object>> activeLoans(LocalDate start, LocalDate end) {
-        List<Map<String, Object>> loans = fetchActiveLoansFromLoanService();
-
-        LocalDate today = LocalDate.now();
+        // loan-service ya filtra por rango (solo viajan los activos del rango)
+        List<Map<String, Object>> loans = fetchFromLoanService("/loan/reports/active", start, end, null);
 
         return loans.stream()
-                .filter(l -> inRange(dateOf(l, "reservationDate"), start, end))
-                .map(l -> {
-                    LocalDate returnDate = dateOf(l, "returnDate");
-                    boolean overdue = (returnDate != null && returnDate.isBefore(today));
-                    Map<String, Object> out = new LinkedHashMap<>(l);
-                    out.put("status", overdue ? "atrasado" : "vigente");
-                    return out;
-                })
+                .map(this::activeLoanRow)
                 .collect(Collectors.toList());
     }
 
+    // loan (JSON de loan-service) + estado; también lo usa la materialización incremental
+    public Map<String, Object> activeLoanRow(Map<String, Object> loan) {
+        Map<String, Object> out = new LinkedHashMap<>(loan);
+        out.put("status", isOverdue(loan) ? "atrasado" : "vigente");
+        return out;
+    }
+
     // ----------------------------
     // RF6.2: clientes con atrasos
     // ----------------------------
     public List<Map<String, Object>> overdueClients(LocalDate start, LocalDate end) {
-        List<Map<String, Object>> loans = fetchActiveLoansFromLoanService();
-
-        LocalDate today = LocalDate.now();
+        return overdueClients(start, end, Map.of());
+    }
 
-        // filtrar préstamos atrasados y en rango
-        List<Map<String, Object>> overdueLoans = loans.stream()
-                .filter(l -> inRange(dateOf(l, "reservationDate"), start, end))
-                .filter(l -> {
-                    LocalDate returnDate = dateOf(l, "returnDate");
-                    return returnDate != null && returnDate.isBefore(today);
-                })
-                .toList();
+    // knownClients: clientes ya enriquecidos en una corrida anterior (no se vuelven a pedir)
+    public List<Map<String, Object>> overdueClients(LocalDate start, LocalDate end,
+                                                    Map<String, Map<String, Object>> knownClients) {
+        // filas {rutUser, overdueLoans} agrupadas y ordenadas en loan-service
+        List<Map<String, Object>> rows = fetchFromLoanService("/loan/reports/overdue-by-rut", start, end, null);
 
-        // agrupar por rutUser
-        Map<String, Long> overdueCountByRut = overdueLoans.stream()
-                .map(l -> (String) l.get("rutUser"))
-                .filter(Objects::nonNull)
-                .collect(Collectors.groupingBy(r -> r, Collectors.counting()));
+        // opcional: enriquecer con client-service (una sola llamada para todos los ruts)
+        List<String> ruts = rows.stream().map(r -> (String) r.get("rutUser"))
+                .filter(Objects::nonNull).filter(r -> !knownClients.containsKey(r)).toList();
+        Map<String, Map<String, Object>> clients = new HashMap<>(knownClients);
+        clients.putAll(fetchClientsByRuts(ruts));
 
         List<Map<String, Object>> result = new ArrayList<>();
 
-        for (var e : overdueCountByRut.entrySet()) {
-            String rut = e.getKey();
-            long count = e.getValue();
+        for (Map<String, Object> r : rows) {
+            String rut = (String) r.get("rutUser");
+            if (rut == null) continue;
 
             Map<String, Object> row = new LinkedHashMap<>();
             row.put("rutUser", rut);
-            row.put("overdueLoans", count);
+            row.put("overdueLoans", ((Number) r.get("overdueLoans")).longValue());
 
-            // opcional: enriquecer con client-service
-            Map<String, Object> client = fetchClientByRut(rut);
+            Map<String, Object> client = clients.get(rut);
             if (client != null) {
                 row.put("client", client); // name/email/etc.
             }
@@ -87,12 +83,6 @@ public class ReportService {
             result.add(row);
         }
 
-        // ordena por más atrasos
-        result.sort((a,b) -> Long.compare(
-                ((Number)b.get("overdueLoans")).longValue(),
-                ((Number)a.get("overdueLoans")).longValue()
-        ));
-
         return result;
     }
 
@@ -100,43 +90,32 @@ public class ReportService {
     // RF6.3: ranking herramientas más prestadas
     // ----------------------------
     public List<Map<String, Object>> topTools(LocalDate start, LocalDate end, int limit) {
-        List<Map<String, Object>> loans = fetchLoansInRangeFromLoanService(start, end);
-
-        // contar toolId en items
-        Map<Long, Long> countByTool = new HashMap<>();
-
-        for (Map<String, Object> loan : loans) {
-            Object itemsObj = loan.get("items");
-            if (!(itemsObj instanceof List<?> items)) continue;
-
-            for (Object itObj : items) {
-                if (!(itObj instanceof Map<?,?> it)) continue;
-                Object toolIdObj = it.get("toolId");
-                if (!(toolIdObj instanceof Number n)) continue;
+        return topTools(start, end, limit, Map.of());
+    }
 
-                Long toolId = n.longValue();
-                countByTool.put(toolId, countByTool.getOrDefault(toolId, 0L) + 1);
-            }
-        }
+    // knownTools: herramientas ya enriquecidas en una corrida anterior (no se vuelven a pedir)
+    public List<Map<String, Object>> topTools(LocalDate start, LocalDate end, int limit,
+                                              Map<Long, Map<String, Object>> knownTools) {
+        // filas {toolId, times} ya ordenadas y limitadas en loan-service
+        List<Map<String, Object>> top = fetchFromLoanService("/loan/reports/top-tool-ids", start, end, Math.max(1, limit));
 
-        // ordenar y limitar
-        List<Map.Entry<Long, Long>> top = countByTool.entrySet().stream()
-                .sorted((a,b) -> Long.compare(b.getValue(), a.getValue()))
-                .limit(Math.max(1, limit))
-                .toList();
+        // enriquecer con inventory (en paralelo, acotado)
+        List<Long> toolIds = top.stream().map(e -> ((Number) e.get("toolId")).longValue())
+                .filter(id -> !knownTools.containsKey(id)).toList();
+        Map<Long, Map<String, Object>> tools = new HashMap<>(knownTools);
+        tools.putAll(enricher.fetchAll(toolIds, this::fetchToolById));
 
         List<Map<String, Object>> out = new ArrayList<>();
 
-        for (var e : top) {
-            Long toolId = e.getKey();
-            Long times = e.getValue();
+        for (Map<String, Object> e : top) {
+            Long toolId = ((Number) e.get("toolId")).longValue();
+            Long times = ((Number) e.get("times")).longValue();
 
             Map<String, Object> row = new LinkedHashMap<>();
             row.put("toolId", toolId);
             row.put("times", times);
 
-            // enriquecer con inventory
-            Map<String, Object> tool = fetchToolById(toolId);
+            Map<String, Object> tool = tools.get(toolId);
             if (tool != null) {
                 row.put("tool", tool); // name/category/...
             }
@@ -147,71 +126,80 @@ public class ReportService {
         return out;
     }
 
-    // ==========================================================
-    // Helpers HTTP (loan/client/inventory)
-    // ==========================================================
+    // ----------------------------
+    // Cursor de cambios de loan-service (materialización incremental)
+    // ----------------------------
+    public record LoanChanges(List<Map<String, Object>> changes, String next, boolean hasMore) {}
 
-    private List<Map<String, Object>> fetchActiveLoansFromLoanService() {
+    public String loanChangeHead() {
         try {
-            // Ideal: que loan-service exponga GET /loans/active
-            String url = loanBaseUrl + "/loans/active";
-            Map[] arr = restTemplate.getForObject(url, Map[].class);
-            return (arr == null) ? List.of() : Arrays.asList(arr);
+            Map<?, ?> resp = restTemplate.getForObject(loanBaseUrl + "/loan/reports/changes/head", Map.class);
+            Object cursor = (resp == null) ? null : resp.get("cursor");
+            if (cursor == null) throw new IllegalStateException("loan-service no devolvió cursor.");
+            return cursor.toString();
         } catch (RestClientException ex) {
-            throw new IllegalStateException("No pude consultar loan-service (/loans/active).", ex);
+            throw new IllegalStateException("No pude consultar loan-service (/loan/reports/changes/head).", ex);
         }
     }
 
-    private List<Map<String, Object>> fetchLoansInRangeFromLoanService(LocalDate start, LocalDate end) {
+    @SuppressWarnings("unchecked")
+    public LoanChanges fetchLoanChanges(String after, int limit) {
         try {
-            // Ideal: GET /loans?start=...&end=...
-            // Si NO lo tienes, puedes por mientras llamar /loans/all y filtrar acá.
-            String url = loanBaseUrl + "/loans/all";
-            Map[] arr = restTemplate.getForObject(url, Map[].class);
-            List<Map<String, Object>> list = (arr == null) ? List.of() : Arrays.asList(arr);
-
-            return list.stream()
-                    .filter(l -> inRange(dateOf(l, "reservationDate"), start, end))
-                    .toList();
+            String url = UriComponentsBuilder.fromUriString(loanBaseUrl).path("/loan/reports/changes")
+                    .queryParam("after", after)
+                    .queryParam("limit", limit)
+                    .build().toUriString();
+            Map<String, Object> resp = restTemplate.getForObject(url, Map.class);
+            if (resp == null || resp.get("next") == null)
+                throw new IllegalStateException("loan-service devolvió una página de cambios vacía.");
+            List<Map<String, Object>> changes = (List<Map<String, Object>>) resp.getOrDefault("changes", List.of());
+            return new LoanChanges(changes, resp.get("next").toString(), Boolean.TRUE.equals(resp.get("hasMore")));
         } catch (RestClientException ex) {
-            throw new IllegalStateException("No pude consultar loan-service (/loans/all).", ex);
+            throw new IllegalStateException("No pude consultar loan-service (/loan/reports/changes).", ex);
         }
     }
 
-    private Map<String, Object> fetchToolById(Long toolId) {
+    // ==========================================================
+    // Helpers HTTP (loan/client/inventory)
+    // ==========================================================
+
+    private List<Map<String, Object>> fetchFromLoanService(String path, LocalDate start, LocalDate end, Integer limit) {
         try {
-            String url = inventoryBaseUrl + "/tool/" + toolId;
-            return restTemplate.getForObject(url, Map.class);
+            UriComponentsBuilder b = UriComponentsBuilder.fromUriString(loanBaseUrl).path(path);
+            if (start != null) b.queryParam("start", start);
+            if (end != null) b.queryParam("end", end);
+            if (limit != null) b.queryParam("limit", limit);
+
+            Map[] arr = restTemplate.getForObject(b.build().toUriString(), Map[].class);
+            return (arr == null) ? List.of() : Arrays.asList(arr);
         } catch (RestClientException ex) {
-            return null;
+            throw new IllegalStateException("No pude consultar loan-service (" + path + ").", ex);
         }
     }
 
-    private Map<String, Object> fetchClientByRut(String rut) {
+    private Map<String, Object> fetchToolById(Long toolId) {
         try {
-            String url = clientBaseUrl + "/users/rut/" + rut;
+            String url = inventoryBaseUrl + "/tool/" + toolId;
             return restTemplate.getForObject(url, Map.class);
         } catch (RestClientException ex) {
             return null;
         }
     }
 
-    // ==========================================================
-    // Helpers fechas
-    // ==========================================================
-
-    private boolean inRange(LocalDate date, LocalDate start, LocalDate end) {
-        if (date == null) return true; // si no hay fecha, no filtramos por fecha
-        if (start != null && date.isBefore(start)) return false;
-        if (end != null && date.isAfter(end)) return false;
-        return true;
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, Object>> fetchClientsByRuts(List<String> ruts) {
+        if (ruts.isEmpty()) return Map.of();
+        try {
+            String url = clientBaseUrl + "/users/by-ruts";
+            Map<String, Map<String, Object>> resp = restTemplate.postForObject(url, ruts, Map.class);
+            return (resp == null) ? Map.of() : resp;
+        } catch (RestClientException ex) {
+            return Map.of();
+        }
     }
 
-    private LocalDate dateOf(Map<String, Object> map, String key) {
-        Object v = map.get(key);
-        if (v == null) return null;
-        // si Jackson lo parsea como String (yyyy-MM-dd)
-        if (v instanceof String s) return LocalDate.parse(s);
-        return null;
+    // loan-service marca "overdue" con su sweeper diario
+    private boolean isOverdue(Map<String, Object> loan) {
+        return Boolean.TRUE.equals(loan.get("overdue"));
     }
 }
@@ -0,0 +1,135 @@
+package com.example.reportservice.services;
+
+import com.example.reportservice.entities.ReportRunEntity;
+import com.example.reportservice.repositories.ReportRunRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// active-loans brought up to date from the loan change feed (mergeActiveLoans)
+class ReportMaterializerTest {
+
+    private static final LocalDate START = LocalDate.of(2025, 3, 1);
+    private static final LocalDate END = LocalDate.of(2025, 3, 31);
+
+    private ReportService reportService;
+    private ReportRunRepository runRepository;
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private ReportMaterializer materializer;
+    private ReportRunEntity run;
+
+    @BeforeEach
+    void setUp() {
+        reportService = mock(ReportService.class);
+        runRepository = mock(ReportRunRepository.class);
+        materializer = new ReportMaterializer(reportService, runRepository, jsonMapper);
+        ReflectionTestUtils.setField(materializer, "freshMs", 60_000L);
+        ReflectionTestUtils.setField(materializer, "fullRefreshMs", 86_400_000L);
+        ReflectionTestUtils.setField(materializer, "changePageSize", 500);
+        ReflectionTestUtils.setField(materializer, "maxChangePages", 20);
+
+        // stored result, past fresh-ms but well within full-refresh-ms
+        LocalDateTime now = LocalDateTime.now();
+        run = new ReportRunEntity();
+        run.setReportName(ReportMaterializer.ACTIVE_LOANS);
+        run.setParamsKey(ReportMaterializer.paramsKey(ReportMaterializer.params(START, END, null)));
+        run.setResultJson(jsonMapper.writeValueAsString(List.of(
+                loan(1L, "2025-03-01", null),
+                loan(2L, "2025-03-05", null),
+                loan(3L, "2025-03-03", null))));
+        run.setChangeCursor("5:10");
+        run.setComputedAt(now.minusHours(1));
+        run.setExecutedAt(now.minusMinutes(2));
+        when(runRepository.findByReportNameAndParamsKey(eq(ReportMaterializer.ACTIVE_LOANS), any()))
+                .thenReturn(Optional.of(run));
+
+        when(reportService.activeLoanRow(any())).thenAnswer(inv -> {
+            Map<String, Object> row = new LinkedHashMap<>(inv.getArgument(0));
+            row.put("status", "vigente");
+            return row;
+        });
+    }
+
+    @Test
+    void changedLoansReplaceTheirRowsInOrder() {
+        when(reportService.fetchLoanChanges("5:10", 500)).thenReturn(new ReportService.LoanChanges(List.of(
+                loan(2L, "2025-03-05", "2025-03-10"),  // returned
+                loan(3L, "2025-04-02", null),          // moved out of the range
+                loan(4L, "2025-03-04", null),          // new
+                loan(5L, "2025-03-04", null)           // new, same day
+        ), "6:14", false));
+
+        ReportMaterializer.Result result = materializer.activeLoans(START, END, "admin", false);
+
+        assertThat(result.source()).isEqualTo("incremental");
+        assertThat(result.stale()).isFalse();
+        // reservationDate desc, then id desc
+        assertThat(ids(result.rows())).containsExactly(5L, 4L, 1L);
+        assertThat(result.rows().get(0)).containsEntry("status", "vigente");
+        verify(reportService, times(2)).activeLoanRow(any());
+        verify(reportService, never()).activeLoans(any(), any());
+        assertThat(run.getChangeCursor()).isEqualTo("6:14");
+    }
+
+    @Test
+    void noChangesKeepTheStoredRows() {
+        when(reportService.fetchLoanChanges("5:10", 500))
+                .thenReturn(new ReportService.LoanChanges(List.of(), "5:10", false));
+
+        ReportMaterializer.Result result = materializer.activeLoans(START, END, "admin", false);
+
+        assertThat(result.source()).isEqualTo("incremental");
+        assertThat(ids(result.rows())).containsExactly(1L, 2L, 3L);
+        verify(reportService, never()).activeLoanRow(any());
+    }
+
+    @Test
+    void changesSpreadOverSeveralPagesAreAllMerged() {
+        when(reportService.fetchLoanChanges("5:10", 500)).thenReturn(new ReportService.LoanChanges(
+                List.of(loan(1L, "2025-03-01", "2025-03-02")), "5:11", true));
+        when(reportService.fetchLoanChanges("5:11", 500)).thenReturn(new ReportService.LoanChanges(
+                List.of(loan(6L, "2025-03-20", null)), "5:12", false));
+
+        ReportMaterializer.Result result = materializer.activeLoans(START, END, "admin", false);
+
+        assertThat(ids(result.rows())).containsExactly(6L, 2L, 3L);
+        assertThat(run.getChangeCursor()).isEqualTo("5:12");
+    }
+
+    @Test
+    void originCursorForcesAFullRecomputation() {
+        run.setChangeCursor("0:0");
+        when(reportService.loanChangeHead()).thenReturn("7:1");
+        when(reportService.activeLoans(START, END)).thenReturn(List.of(loan(9L, "2025-03-09", null)));
+
+        ReportMaterializer.Result result = materializer.activeLoans(START, END, "admin", false);
+
+        assertThat(result.source()).isEqualTo("full");
+        assertThat(ids(result.rows())).containsExactly(9L);
+        verify(reportService, never()).fetchLoanChanges(any(), anyInt());
+    }
+
+    private Map<String, Object> loan(Long id, String reservationDate, String lateReturnDate) {
+        Map<String, Object> loan = new LinkedHashMap<>();
+        loan.put("id", id);
+        loan.put("rutUser", "12345678-9");
+        loan.put("reservationDate", reservationDate);
+        loan.put("lateReturnDate", lateReturnDate);
+        return loan;
+    }
+
+    private List<Long> ids(List<Map<String, Object>> rows) {
+        List<Long> out = new ArrayList<>();
+        for (Map<String, Object> r : rows) out.add(((Number) r.get("id")).longValue());
+        return out;
+    }
+}
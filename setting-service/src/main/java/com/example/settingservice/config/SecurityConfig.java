@@ -30,6 +30,9 @@ public class SecurityConfig {
                         .requestMatchers("/actuator/**").permitAll()
                         .requestMatchers("/public/**").permitAll()
 
+                        // JWT o X-Internal-Key (se valida en el controller)
+                        .requestMatchers(HttpMethod.GET, "/settings/daily-rate", "/settings/version", "/settings/snapshot").permitAll()
+
                         // el resto protegido
                         .anyRequest().authenticated()
                 )
@@ -3,10 +3,16 @@ package com.example.settingservice.controllers;
 
 import com.example.settingservice.services.SettingService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @RestController
@@ -17,13 +23,47 @@ public class SettingController {
 
     private final SettingService setting;
 
+    // shared key for service-to-service calls without a user JWT (background cache refresh)
+    @Value("${internal.api-key}")
+    private String internalApiKey;
 
-    //logged users can see it
+
+    //logged users (or internal callers) can see it
     @GetMapping("/daily-rate")
-    public ResponseEntity<Map<String, Object>> getDailyRate() {
+    public ResponseEntity<Map<String, Object>> getDailyRate(
+            @RequestHeader(value = "X-Internal-Key", required = false) String key,
+            Authentication auth
+    ) {
+        if (!callerAllowed(auth, key)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         return ResponseEntity.ok(Map.of("value", setting.getDailyRentPrice()));
     }
 
+    //every parameter in one conditional request (ETag = version, 304 when unchanged)
+    @GetMapping("/snapshot")
+    public ResponseEntity<SettingService.Snapshot> getSnapshot(
+            @RequestHeader(value = "X-Internal-Key", required = false) String key,
+            Authentication auth,
+            WebRequest request
+    ) {
+        if (!callerAllowed(auth, key)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+
+        String etag = "\"" + setting.getVersion() + "\"";
+        if (request.checkNotModified(etag)) return null; // 304 already written
+
+        SettingService.Snapshot snapshot = setting.getSnapshot();
+        return ResponseEntity.ok().eTag("\"" + snapshot.version() + "\"").body(snapshot);
+    }
+
+    //version of the settings, polled by caches in other services
+    @GetMapping("/version")
+    public ResponseEntity<Map<String, Object>> getVersion(
+            @RequestHeader(value = "X-Internal-Key", required = false) String key,
+            Authentication auth
+    ) {
+        if (!callerAllowed(auth, key)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        return ResponseEntity.ok(Map.of("version", setting.getVersion()));
+    }
+
     //Just "Admin" can update it
     @PreAuthorize("hasAnyRole('ADMIN')")
     @PutMapping("/daily-rate")
@@ -34,4 +74,52 @@ public class SettingController {
         int saved = setting.setDailyRentPrice(v);
         return ResponseEntity.ok(Map.of("value", saved));
     }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @PutMapping("/fine-per-day")
+    public ResponseEntity<Map<String, Object>> updateFinePerDay(@RequestBody Map<String, Object> body) {
+        Object raw = body.get("value");
+        if (raw == null) return ResponseEntity.badRequest().body(Map.of("error","value is required"));
+        int v = (raw instanceof Number n) ? n.intValue() : Integer.parseInt(raw.toString());
+        try {
+            return ResponseEntity.ok(Map.of("value", setting.setFinePerDay(v)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @PutMapping("/max-active-loans")
+    public ResponseEntity<Map<String, Object>> updateMaxActiveLoans(@RequestBody Map<String, Object> body) {
+        Object raw = body.get("value");
+        if (raw == null) return ResponseEntity.badRequest().body(Map.of("error","value is required"));
+        int v = (raw instanceof Number n) ? n.intValue() : Integer.parseInt(raw.toString());
+        try {
+            return ResponseEntity.ok(Map.of("value", setting.setMaxActiveLoans(v)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    //body: {"<category>": cost, ...}; null or negative removes the category
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @PutMapping("/repair-costs")
+    public ResponseEntity<?> updateRepairCosts(@RequestBody Map<String, Object> body) {
+        Map<String, Integer> costs = new HashMap<>();
+        for (Map.Entry<String, Object> e : body.entrySet()) {
+            Object raw = e.getValue();
+            costs.put(e.getKey(), raw == null ? null
+                    : (raw instanceof Number n) ? n.intValue() : Integer.parseInt(raw.toString()));
+        }
+        try {
+            return ResponseEntity.ok(setting.setRepairCosts(costs));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    private boolean callerAllowed(Authentication auth, String key) {
+        if (auth instanceof JwtAuthenticationToken) return true;
+        return !internalApiKey.isBlank() && internalApiKey.equals(key);
+    }
 }
@@ -4,9 +4,13 @@ package com.example.settingservice.services;
 import com.example.settingservice.entities.SettingEntity;
 import com.example.settingservice.repositories.SettingRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Map;
+import java.util.TreeMap;
+
 @Service
 @RequiredArgsConstructor
 public class SettingService {
@@ -14,23 +18,133 @@ public class SettingService {
     public static final String daily_key = "daily_rent_price";
     private static final int default_price = 2500;
 
+    public static final String fine_key = "fine_per_day";
+    private static final int default_fine = 0;
+
+    public static final String max_loans_key = "max_active_loans";
+    private static final int default_max_loans = 5;
+
+    // one row per category: "repair_cost:<category>"
+    public static final String repair_prefix = "repair_cost:";
+
+    // bumped on every write; consumers poll it to invalidate their caches
+    public static final String version_key = "settings_version";
+
     private final SettingRepository repo;
+    private final JdbcTemplate jdbcTemplate;
+
+    // Every parameter in one read (the table has a handful of rows)
+    public record Snapshot(long version,
+                           int dailyRentPrice,
+                           int finePerDay,
+                           int maxActiveLoans,
+                           Map<String, Integer> repairCosts) {}
+
+    @Transactional(readOnly = true)
+    public Snapshot getSnapshot() {
+        long version = 0;
+        int daily = default_price;
+        int fine = default_fine;
+        int maxLoans = default_max_loans;
+        Map<String, Integer> repairCosts = new TreeMap<>();
+
+        for (SettingEntity s : repo.findAll()) {
+            String key = s.getPrice();
+            if (version_key.equals(key)) version = parseLong(s.getText(), 0L);
+            else if (daily_key.equals(key)) daily = parseInt(s.getText(), default_price);
+            else if (fine_key.equals(key)) fine = parseInt(s.getText(), default_fine);
+            else if (max_loans_key.equals(key)) maxLoans = parseInt(s.getText(), default_max_loans);
+            else if (key.startsWith(repair_prefix)) repairCosts.put(key.substring(repair_prefix.length()), parseInt(s.getText(), 0));
+        }
+        return new Snapshot(version, daily, fine, maxLoans, repairCosts);
+    }
 
     @Transactional(readOnly = true)
     public int getDailyRentPrice() {
-        return repo.findById(daily_key)
-                .map(s -> {
-                    try { return Integer.parseInt(s.getText()); }
-                    catch (Exception e) { return default_price; }
-                })
-                .orElse(default_price);
+        return getInt(daily_key, default_price);
     }
 
     @Transactional
     public int setDailyRentPrice(int value) {
         if (value < 0) throw new IllegalArgumentException("Daily price must be >= 0");
-        repo.save(new SettingEntity(daily_key, String.valueOf(value)));
+        return setInt(daily_key, value);
+    }
+
+    @Transactional(readOnly = true)
+    public int getFinePerDay() {
+        return getInt(fine_key, default_fine);
+    }
+
+    @Transactional
+    public int setFinePerDay(int value) {
+        if (value < 0) throw new IllegalArgumentException("Fine per day must be >= 0");
+        return setInt(fine_key, value);
+    }
+
+    @Transactional(readOnly = true)
+    public int getMaxActiveLoans() {
+        return getInt(max_loans_key, default_max_loans);
+    }
+
+    @Transactional
+    public int setMaxActiveLoans(int value) {
+        if (value < 1) throw new IllegalArgumentException("Max active loans must be >= 1");
+        return setInt(max_loans_key, value);
+    }
+
+    // category -> cost; a null/negative cost removes the category
+    @Transactional
+    public Map<String, Integer> setRepairCosts(Map<String, Integer> costs) {
+        for (Map.Entry<String, Integer> e : costs.entrySet()) {
+            if (e.getKey() == null || e.getKey().isBlank())
+                throw new IllegalArgumentException("Repair cost category is required");
+            String key = repair_prefix + e.getKey().trim();
+            if (e.getValue() == null || e.getValue() < 0) repo.deleteById(key);
+            else repo.save(new SettingEntity(key, String.valueOf(e.getValue())));
+        }
+        bumpVersion();
+        return getSnapshot().repairCosts();
+    }
+
+    @Transactional(readOnly = true)
+    public long getVersion() {
+        return repo.findById(version_key)
+                .map(s -> parseLong(s.getText(), 0L))
+                .orElse(0L);
+    }
+
+    // Helpers
+
+    private int getInt(String key, int def) {
+        return repo.findById(key)
+                .map(s -> parseInt(s.getText(), def))
+                .orElse(def);
+    }
+
+    private int setInt(String key, int value) {
+        repo.save(new SettingEntity(key, String.valueOf(value)));
+        bumpVersion();
         return value;
     }
-}
 
+    // One atomic upsert: the row lock serializes concurrent writes until commit, so every write
+    // gets its own version (a repeated version would leave clients with a stale 304 forever)
+    private void bumpVersion() {
+        jdbcTemplate.queryForObject("""
+                insert into app_setting (price, text) values (?, '1')
+                on conflict (price) do update
+                set text = (case when app_setting.text ~ '^[0-9]+$' then app_setting.text::bigint else 0 end + 1)::text
+                returning text
+                """, String.class, version_key);
+    }
+
+    private int parseInt(String raw, int def) {
+        try { return Integer.parseInt(raw); }
+        catch (Exception e) { return def; }
+    }
+
+    private long parseLong(String raw, long def) {
+        try { return Long.parseLong(raw); }
+        catch (Exception e) { return def; }
+    }
+}